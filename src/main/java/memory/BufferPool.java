@@ -0,0 +1,114 @@
+package memory;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of double[] buffers, grouped in size classes by array length.
+ * Whole-matrix buffers are rounded up to a power of two so matrices of similar
+ * size share a class; acquireExact skips the rounding. Only buffers handed out by a
+ * pool may be released to it, and a buffer must not be used after it is released.
+ * The rows of double[][] results are not pooled: they leave the engine and never come back.
+ */
+public class BufferPool {
+
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 256L << 20;
+    private static final int MIN_CLASS_LENGTH = 64;
+
+    private final long maxRetainedBytes;
+    private final Map<Integer, ArrayDeque<double[]>> free = new HashMap<>();
+    private long retainedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long releases = 0;
+    private long drops = 0; // released buffers not kept because the pool was full
+
+    public BufferPool() {
+        this(DEFAULT_MAX_RETAINED_BYTES);
+    }
+
+    public BufferPool(long maxRetainedBytes) {
+        if (maxRetainedBytes < 0)
+            throw new IllegalArgumentException("Illegal pool size");
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * Returns a buffer of at least minLength elements, rounded up to its size class.
+     * The contents are undefined.
+     */
+    public double[] acquire(int minLength) {
+        if (minLength < 0)
+            throw new IllegalArgumentException("Illegal buffer size");
+        return take(classLength(minLength));
+    }
+
+    /**
+     * Same as acquire, with every element set to zero.
+     */
+    public double[] acquireZeroed(int minLength) {
+        double[] buffer = acquire(minLength);
+        Arrays.fill(buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer of exactly the given length. The contents are undefined.
+     */
+    public double[] acquireExact(int length) {
+        if (length < 0)
+            throw new IllegalArgumentException("Illegal buffer size");
+        return take(length);
+    }
+
+    public synchronized void release(double[] buffer) {
+        if (buffer == null || buffer.length == 0)
+            return;
+        releases++;
+        long bytes = (long) buffer.length * Double.BYTES;
+        if (retainedBytes + bytes > maxRetainedBytes) {
+            drops++;
+            return;
+        }
+        free.computeIfAbsent(buffer.length, length -> new ArrayDeque<>()).push(buffer);
+        retainedBytes += bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public synchronized String getReport() {
+        return "--- Buffer Pool ---\n" +
+                "Hits: " + hits + ", Misses: " + misses + ", Releases: " + releases +
+                ", Dropped: " + drops + ", Retained bytes: " + retainedBytes + "\n";
+    }
+
+    private synchronized double[] take(int length) {
+        ArrayDeque<double[]> buffers = free.get(length);
+        if (buffers != null && !buffers.isEmpty()) {
+            hits++;
+            retainedBytes -= (long) length * Double.BYTES;
+            return buffers.pop();
+        }
+        misses++;
+        return new double[length];
+    }
+
+    private static int classLength(int minLength) {
+        if (minLength <= MIN_CLASS_LENGTH)
+            return MIN_CLASS_LENGTH;
+        int rounded = Integer.highestOneBit(minLength - 1) << 1;
+        return rounded > 0 ? rounded : minLength; // no power of two class above 2^30
+    }
+}
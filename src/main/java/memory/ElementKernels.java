@@ -0,0 +1,51 @@
+package memory;
+
+/**
+ * Element-wise kernels over contiguous slices of double arrays.
+ * The implementation is chosen once at startup: SIMD kernels built on the incubating
+ * Vector API when the jdk.incubator.vector module is present
+ * (run with --add-modules jdk.incubator.vector), scalar loops otherwise.
+ * Setting the system property lae.simd=false forces the scalar kernels.
+ */
+public interface ElementKernels {
+
+    ElementKernels INSTANCE = select();
+
+    /**
+     * dst[dstOff + i] += src[srcOff + i] for i in [0, length)
+     */
+    void add(double[] dst, int dstOff, double[] src, int srcOff, int length);
+
+    /**
+     * dst[dstOff + i] += alpha * src[srcOff + i] for i in [0, length), rounding the product before the add
+     */
+    void scaledAdd(double[] dst, int dstOff, double alpha, double[] src, int srcOff, int length);
+
+    /**
+     * dst[dstOff + i] = -dst[dstOff + i] for i in [0, length)
+     */
+    void negate(double[] dst, int dstOff, int length);
+
+    /**
+     * Returns the sum of a[aOff + i] * b[bOff + i] for i in [0, length)
+     */
+    double dot(double[] a, int aOff, double[] b, int bOff, int length);
+
+    /**
+     * Returns a short name of the implementation, for reports.
+     */
+    String name();
+
+    private static ElementKernels select() {
+        if (!Boolean.parseBoolean(System.getProperty("lae.simd", "true")))
+            return new ScalarKernels();
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return new ScalarKernels();
+        try {
+            // loaded reflectively so this interface never links against the incubator module
+            return (ElementKernels) Class.forName("memory.VectorApiKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarKernels();
+        }
+    }
+}
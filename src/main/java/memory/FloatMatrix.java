@@ -0,0 +1,180 @@
+package memory;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * An immutable-by-convention row-major matrix of 32-bit floats, used in Precision.FLOAT mode.
+ * Kernels compute a range of output rows so the engine can split them into tasks;
+ * every output row is written by exactly one task.
+ */
+public final class FloatMatrix {
+
+    private static final int TRANSPOSE_BLOCK = 32;
+
+    private final int rows;
+    private final int cols;
+    private final float[] data; // element (i, j) is data[i * cols + j]
+
+    public FloatMatrix(int rows, int cols) {
+        if (rows < 0 || cols < 0)
+            throw new IllegalArgumentException("Illegal matrix size");
+        int length;
+        try {
+            length = Math.multiplyExact(rows, cols);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("A " + rows + "x" + cols + " matrix doesn't fit in one array", e);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.data = new float[length];
+    }
+
+    public static FloatMatrix fromDouble(double[][] matrix) {
+        if (matrix == null)
+            throw new IllegalArgumentException("Matrix is null");
+        int width = matrix.length > 0 ? matrix[0].length : 0;
+        FloatMatrix result = new FloatMatrix(matrix.length, width);
+        for (int i=0; i<matrix.length; i++) {
+            if (matrix[i] == null || matrix[i].length != width)
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix");
+            for (int j=0; j<width; j++) {
+                result.data[i*width + j] = (float) matrix[i][j];
+            }
+        }
+        return result;
+    }
+
+    public double[][] toDouble() {
+        double[][] matrix = new double[rows][cols];
+        for (int i=0; i<rows; i++) {
+            for (int j=0; j<cols; j++) {
+                matrix[i][j] = data[i*cols + j];
+            }
+        }
+        return matrix;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public float get(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols)
+            throw new IndexOutOfBoundsException();
+        return data[row*cols + col];
+    }
+
+    public FloatMatrix negate() {
+        FloatMatrix result = new FloatMatrix(rows, cols);
+        negateRows(this, result, 0, rows);
+        return result;
+    }
+
+    public FloatMatrix transpose() {
+        FloatMatrix result = new FloatMatrix(cols, rows);
+        transposeRows(this, result, 0, cols);
+        return result;
+    }
+
+    /**
+     * out[i] = left[i] + right[i] for rows [start, end)
+     */
+    public static void addRows(FloatMatrix left, FloatMatrix right, FloatMatrix out, int start, int end) {
+        for (int k=start*left.cols; k<end*left.cols; k++) {
+            out.data[k] = left.data[k] + right.data[k];
+        }
+    }
+
+    /**
+     * out[i] = -operand[i] for rows [start, end)
+     */
+    public static void negateRows(FloatMatrix operand, FloatMatrix out, int start, int end) {
+        for (int k=start*operand.cols; k<end*operand.cols; k++) {
+            out.data[k] = -operand.data[k];
+        }
+    }
+
+    /**
+     * Writes rows [start, end) of the transpose of operand into out, in cache-sized blocks.
+     */
+    public static void transposeRows(FloatMatrix operand, FloatMatrix out, int start, int end) {
+        for (int ib=start; ib<end; ib+=TRANSPOSE_BLOCK) {
+            int iEnd = Math.min(ib + TRANSPOSE_BLOCK, end);
+            for (int jb=0; jb<out.cols; jb+=TRANSPOSE_BLOCK) {
+                int jEnd = Math.min(jb + TRANSPOSE_BLOCK, out.cols);
+                for (int i=ib; i<iEnd; i++) {
+                    for (int j=jb; j<jEnd; j++) {
+                        out.data[i*out.cols + j] = operand.data[j*operand.cols + i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes rows [start, end) of left x right into out.
+     * With doubleAccumulation each output row is accumulated in double and rounded once,
+     * otherwise every partial sum is a float.
+     */
+    public static void multiplyRows(FloatMatrix left, FloatMatrix right, FloatMatrix out, int start, int end, boolean doubleAccumulation) {
+        int depth = left.cols;
+        int width = right.cols;
+        double[] accumulator = doubleAccumulation ? new double[width] : null;
+        for (int i=start; i<end; i++) {
+            int outRow = i*width;
+            if (doubleAccumulation)
+                Arrays.fill(accumulator, 0);
+            for (int p=0; p<depth; p++) {
+                float scale = left.data[i*depth + p]; // zeros are multiplied too: 0 * Inf is NaN, as in the double path
+                int rightRow = p*width;
+                if (doubleAccumulation) {
+                    for (int j=0; j<width; j++) {
+                        accumulator[j] += (double) scale * right.data[rightRow + j];
+                    }
+                } else {
+                    for (int j=0; j<width; j++) {
+                        out.data[outRow + j] += scale * right.data[rightRow + j];
+                    }
+                }
+            }
+            if (doubleAccumulation) {
+                for (int j=0; j<width; j++) {
+                    out.data[outRow + j] = (float) accumulator[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Feeds the shape and elements of the matrix to a content digest.
+     */
+    public void updateDigest(MessageDigest digest) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * Integer.BYTES + cols * Float.BYTES);
+        digest.update(buffer.putInt(rows).putInt(cols).array(), 0, 2 * Integer.BYTES);
+        for (int i=0; i<rows; i++) {
+            buffer.clear();
+            buffer.asFloatBuffer().put(data, i*cols, cols);
+            digest.update(buffer.array(), 0, cols * Float.BYTES);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof FloatMatrix other))
+            return false;
+        return rows == other.rows && cols == other.cols && Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * rows + cols) + Arrays.hashCode(data);
+    }
+}
@@ -0,0 +1,238 @@
+package memory;
+
+/**
+ * Cache-blocked matrix multiplication kernel working directly on the raw storage
+ * of SharedMatrix.
+ * The right operand is packed once per multiplication into column panels of NR columns,
+ * so every panel is read sequentially by the micro-kernel.
+ * Each call computes a range of output rows in MR x NR register tiles, blocked as in
+ * GotoBLAS: NC columns of the packed operand at a time (a KC x NC slice stays in L3),
+ * then KC of the shared dimension, then MC rows of the left operand, packed once per
+ * block (a MC x KC block stays in L2), so each KC x NR panel slice is reused from L1
+ * by every register tile of the row block.
+ */
+public final class GemmKernel {
+
+    public static final int MR = 4; // rows per register tile
+    public static final int NR = 4; // columns per register tile (packed panel width)
+    public static final int KC = 256; // shared dimension block
+    public static final int MC = 64; // rows of the left operand per packed block, a multiple of MR
+    public static final int NC = 512; // columns of the right operand per block, a multiple of NR
+
+    private GemmKernel() {}
+
+    /**
+     * The right operand packed into panels of NR columns.
+     * Element (p, j) is stored at panels[((j / NR) * depth + p) * NR + j % NR],
+     * the last panel is padded with zeros.
+     */
+    public static final class PackedMatrix {
+        private final double[] panels;
+        private final int depth; // number of rows of the original matrix
+        private final int width; // number of columns of the original matrix
+
+        private PackedMatrix(double[] panels, int depth, int width) {
+            this.panels = panels;
+            this.depth = depth;
+            this.width = width;
+        }
+
+        public int rows() {
+            return depth;
+        }
+
+        public int columns() {
+            return width;
+        }
+    }
+
+    /**
+     * Packs the right operand of a multiplication. Called once per multiplication.
+     */
+    public static PackedMatrix pack(SharedMatrix matrix) {
+        if (matrix == null || matrix.length() == 0)
+            throw new IllegalArgumentException("Can't pack an empty matrix");
+        matrix.readLockAll();
+        try {
+            boolean rowMajor = matrix.storedVector(0).orientation() == VectorOrientation.ROW_MAJOR;
+            int depth = rowMajor ? matrix.length() : matrix.storedVector(0).size();
+            int width = rowMajor ? matrix.storedVector(0).size() : matrix.length();
+            int panelCount = (width + NR - 1) / NR;
+            double[] panels = new double[panelCount * depth * NR];
+            if (rowMajor) {
+                for (int p=0; p<depth; p++) {
+                    SharedVector row = matrix.storedVector(p);
+                    for (int j=0; j<width; j++) {
+                        panels[((j / NR) * depth + p) * NR + j % NR] = row.at(j);
+                    }
+                }
+            } else {
+                for (int j=0; j<width; j++) {
+                    SharedVector column = matrix.storedVector(j);
+                    int base = (j / NR) * depth * NR + j % NR;
+                    for (int p=0; p<depth; p++) {
+                        panels[base + p * NR] = column.at(p);
+                    }
+                }
+            }
+            return new PackedMatrix(panels, depth, width);
+        } finally {
+            matrix.readUnlockAll();
+        }
+    }
+
+    /**
+     * Computes rows [rowStart, rowEnd) of left x right into result.
+     * left may be row-major or a transposed (column-major) view,
+     * result must be a row-major matrix of the right size.
+     */
+    public static void multiply(SharedMatrix left, PackedMatrix right, SharedMatrix result, int rowStart, int rowEnd) {
+        boolean leftRowMajor = left.getOrientation() == VectorOrientation.ROW_MAJOR;
+        if (rowStart < 0 || rowEnd > left.rowCount() || rowStart > rowEnd)
+            throw new IndexOutOfBoundsException();
+        if (rowStart == rowEnd)
+            return;
+        int depth = right.depth;
+        int width = right.width;
+        double[] packedA = new double[MC * KC];
+        lockOperands(left, leftRowMajor, result, rowStart, rowEnd);
+        try {
+            if ((leftRowMajor ? left.storedVector(rowStart).size() : left.length()) != depth)
+                throw new IllegalArgumentException("Invalid Matrices sizes");
+            for (int i=rowStart; i<rowEnd; i++) {
+                if (result.storedVector(i).size() != width)
+                    throw new IllegalArgumentException("Invalid Matrices sizes");
+            }
+            for (int jc=0; jc<width; jc+=NC) {
+                int jEnd = Math.min(width, jc + NC);
+                for (int kb=0; kb<depth; kb+=KC) {
+                    int kc = Math.min(KC, depth - kb);
+                    for (int ic=rowStart; ic<rowEnd; ic+=MC) {
+                        int iEnd = Math.min(rowEnd, ic + MC);
+                        // the MC x KC block is packed as slivers of MR rows, KC * MR apart
+                        for (int ib=ic; ib<iEnd; ib+=MR) {
+                            int aOffset = (ib - ic) * KC;
+                            if (leftRowMajor) {
+                                packRows(left, ib, Math.min(MR, iEnd - ib), kb, kc, packedA, aOffset);
+                            } else {
+                                packColumns(left, ib, Math.min(MR, iEnd - ib), kb, kc, packedA, aOffset);
+                            }
+                        }
+                        for (int jb=jc; jb<jEnd; jb+=NR) {
+                            int bOffset = ((jb / NR) * depth + kb) * NR;
+                            for (int ib=ic; ib<iEnd; ib+=MR) {
+                                int mr = Math.min(MR, iEnd - ib);
+                                if (mr == MR) {
+                                    microKernel(packedA, (ib - ic) * KC, right.panels, bOffset, kc, result, ib, jb);
+                                } else {
+                                    edgeKernel(packedA, (ib - ic) * KC, mr, right.panels, bOffset, kc, result, ib, jb);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            unlockOperands(left, leftRowMajor, result, rowStart, rowEnd);
+        }
+    }
+
+    /**
+     * A row-major left operand and the result are locked on the stripes covering the row block;
+     * a transposed view spreads each row over all its vectors, so all of them are read-locked.
+     */
+    private static void lockOperands(SharedMatrix left, boolean leftRowMajor, SharedMatrix result, int rowStart, int rowEnd) {
+        if (leftRowMajor)
+            left.readLockRange(rowStart, rowEnd);
+        else
+            left.readLockAll();
+        result.writeLockRange(rowStart, rowEnd);
+    }
+
+    private static void unlockOperands(SharedMatrix left, boolean leftRowMajor, SharedMatrix result, int rowStart, int rowEnd) {
+        result.writeUnlockRange(rowStart, rowEnd);
+        if (leftRowMajor)
+            left.readUnlockRange(rowStart, rowEnd);
+        else
+            left.readUnlockAll();
+    }
+
+    /**
+     * Copies a mr x kc block of the left operand into packedA from aOffset, interleaved
+     * by row so the micro-kernel reads it sequentially.
+     */
+    private static void packRows(SharedMatrix left, int ib, int mr, int kb, int kc, double[] packedA, int aOffset) {
+        for (int r=0; r<mr; r++) {
+            SharedVector row = left.storedVector(ib + r);
+            double[] a = row.data();
+            int stride = row.stride();
+            int index = row.offset() + kb * stride;
+            for (int p=0; p<kc; p++, index+=stride) {
+                packedA[aOffset + p * MR + r] = a[index];
+            }
+        }
+    }
+
+    /**
+     * Same as packRows for a column-major left operand, where element (i, p) is
+     * element i of vector p.
+     */
+    private static void packColumns(SharedMatrix left, int ib, int mr, int kb, int kc, double[] packedA, int aOffset) {
+        for (int p=0; p<kc; p++) {
+            SharedVector column = left.storedVector(kb + p);
+            for (int r=0; r<mr; r++) {
+                packedA[aOffset + p * MR + r] = column.at(ib + r);
+            }
+        }
+    }
+
+    private static void microKernel(double[] a, int aOffset, double[] b, int bOffset, int kc, SharedMatrix result, int ib, int jb) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for (int p=0, ai=aOffset, bi=bOffset; p<kc; p++, ai+=MR, bi+=NR) {
+            double b0 = b[bi], b1 = b[bi + 1], b2 = b[bi + 2], b3 = b[bi + 3];
+            double a0 = a[ai];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            double a1 = a[ai + 1];
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            double a2 = a[ai + 2];
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            double a3 = a[ai + 3];
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+        }
+        accumulate(result.storedVector(ib), jb, c00, c01, c02, c03);
+        accumulate(result.storedVector(ib + 1), jb, c10, c11, c12, c13);
+        accumulate(result.storedVector(ib + 2), jb, c20, c21, c22, c23);
+        accumulate(result.storedVector(ib + 3), jb, c30, c31, c32, c33);
+    }
+
+    private static void edgeKernel(double[] a, int aOffset, int mr, double[] b, int bOffset, int kc, SharedMatrix result, int ib, int jb) {
+        for (int r=0; r<mr; r++) {
+            double c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+            for (int p=0, ai=aOffset + r, bi=bOffset; p<kc; p++, ai+=MR, bi+=NR) {
+                double ar = a[ai];
+                c0 += ar * b[bi];
+                c1 += ar * b[bi + 1];
+                c2 += ar * b[bi + 2];
+                c3 += ar * b[bi + 3];
+            }
+            accumulate(result.storedVector(ib + r), jb, c0, c1, c2, c3);
+        }
+    }
+
+    /**
+     * Adds a register tile row into the output, skipping the zero padding of the last panel.
+     */
+    private static void accumulate(SharedVector row, int jb, double c0, double c1, double c2, double c3) {
+        double[] c = row.data();
+        int stride = row.stride();
+        int index = row.offset() + jb * stride;
+        int valid = Math.min(NR, row.size() - jb);
+        c[index] += c0;
+        if (valid > 1) c[index + stride] += c1;
+        if (valid > 2) c[index + 2 * stride] += c2;
+        if (valid > 3) c[index + 3 * stride] += c3;
+    }
+}
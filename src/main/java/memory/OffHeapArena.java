@@ -0,0 +1,66 @@
+package memory;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Owns the off-heap matrices of one computation and tracks how much native memory they use.
+ * Matrices are released one by one as soon as they are consumed, and whatever is
+ * still alive is released when the arena is closed.
+ */
+public class OffHeapArena implements AutoCloseable {
+
+    private final Map<OffHeapMatrix, Boolean> live = new IdentityHashMap<>();
+    private long liveBytes = 0;
+    private long peakBytes = 0;
+    private long releasedBytes = 0;
+
+    public synchronized OffHeapMatrix copyOf(double[][] matrix) {
+        return register(OffHeapMatrix.copyOf(matrix));
+    }
+
+    public synchronized OffHeapMatrix copyOf(SharedMatrix matrix) {
+        return register(OffHeapMatrix.copyOf(matrix));
+    }
+
+    /**
+     * Releases a matrix owned by this arena. Releasing twice, or releasing a matrix
+     * owned by someone else, does nothing.
+     */
+    public synchronized void release(OffHeapMatrix matrix) {
+        if (matrix != null && live.remove(matrix) != null) {
+            liveBytes -= matrix.byteSize();
+            releasedBytes += matrix.byteSize();
+            matrix.close();
+        }
+    }
+
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    public synchronized long getReleasedBytes() {
+        return releasedBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (OffHeapMatrix matrix : live.keySet()) {
+            releasedBytes += matrix.byteSize();
+            matrix.close();
+        }
+        live.clear();
+        liveBytes = 0;
+    }
+
+    private OffHeapMatrix register(OffHeapMatrix matrix) {
+        live.put(matrix, Boolean.TRUE);
+        liveBytes += matrix.byteSize();
+        peakBytes = Math.max(peakBytes, liveBytes);
+        return matrix;
+    }
+}
@@ -0,0 +1,190 @@
+package memory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * A row-major matrix stored outside the Java heap in direct buffers.
+ * Used to hold operands and intermediate results between computations, so large
+ * matrices don't pressure the garbage collector while they wait. Only that idle storage
+ * is off-heap: the kernels work on heap arrays, so loadInto copies the whole matrix onto
+ * the heap for the operation using it.
+ * The memory is released deterministically by close(); a closed matrix can't be used.
+ * The project targets Java 21 without preview features, so the storage is a set of
+ * direct DoubleBuffers (each at most MAX_CHUNK_BYTES) instead of a MemorySegment.
+ */
+public class OffHeapMatrix implements AutoCloseable {
+
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+    private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8; // largest safe Java array
+
+    // sun.misc.Unsafe.invokeCleaner frees a direct buffer immediately; null if unavailable
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final int rows;
+    private final int cols;
+    private final int rowsPerChunk;
+    private ByteBuffer[] chunks; // null once closed
+
+    public OffHeapMatrix(int rows, int cols) {
+        if (rows < 0 || cols < 0)
+            throw new IllegalArgumentException("Illegal matrix size");
+        this.rows = rows;
+        this.cols = cols;
+        long rowBytes = Math.max(1L, (long) cols * Double.BYTES);
+        if (rowBytes > MAX_CHUNK_BYTES)
+            throw new IllegalArgumentException("Rows of " + cols + " columns don't fit in a buffer");
+        this.rowsPerChunk = (int) Math.max(1, Math.min(rows, MAX_CHUNK_BYTES / rowBytes));
+        int chunkCount = rows == 0 ? 0 : (rows + rowsPerChunk - 1) / rowsPerChunk;
+        chunks = new ByteBuffer[chunkCount];
+        for (int c=0; c<chunkCount; c++) {
+            int chunkRows = Math.min(rowsPerChunk, rows - c*rowsPerChunk);
+            chunks[c] = ByteBuffer.allocateDirect(Math.toIntExact((long) chunkRows * cols * Double.BYTES)).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    public static OffHeapMatrix copyOf(double[][] matrix) {
+        if (matrix == null)
+            throw new IllegalArgumentException("Matrix is null");
+        int width = matrix.length > 0 ? matrix[0].length : 0;
+        OffHeapMatrix copy = new OffHeapMatrix(matrix.length, width);
+        for (int i=0; i<matrix.length; i++) {
+            if (matrix[i] == null || matrix[i].length != width) {
+                copy.close();
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix");
+            }
+            copy.putRow(i, matrix[i]);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the logical contents of a SharedMatrix, whatever its orientation.
+     */
+    public static OffHeapMatrix copyOf(SharedMatrix matrix) {
+        if (matrix == null)
+            throw new IllegalArgumentException("Matrix is null");
+        if (matrix.length() == 0)
+            return new OffHeapMatrix(0, 0);
+        matrix.readLockAll();
+        try {
+            boolean rowMajor = matrix.storedVector(0).orientation() == VectorOrientation.ROW_MAJOR;
+            int rows = rowMajor ? matrix.length() : matrix.storedVector(0).size();
+            int cols = rowMajor ? matrix.storedVector(0).size() : matrix.length();
+            OffHeapMatrix copy = new OffHeapMatrix(rows, cols);
+            boolean negated = matrix.isNegated();
+            double[] row = new double[cols];
+            for (int i=0; i<rows; i++) {
+                if (rowMajor) {
+                    matrix.storedVector(i).copyInto(row, 0);
+                } else {
+                    for (int j=0; j<cols; j++) {
+                        row[j] = matrix.storedVector(j).at(i);
+                    }
+                }
+                if (negated) {
+                    for (int j=0; j<cols; j++) {
+                        row[j] = -row[j];
+                    }
+                }
+                copy.putRow(i, row);
+            }
+            return copy;
+        } finally {
+            matrix.readUnlockAll();
+        }
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public long byteSize() {
+        return (long) rows * cols * Double.BYTES;
+    }
+
+    public synchronized boolean isClosed() {
+        return chunks == null;
+    }
+
+    /**
+     * Loads the contents into target as a row-major matrix, without an intermediate double[][].
+     * This is a full copy onto the heap, the off-heap storage is left as it is.
+     */
+    public synchronized void loadInto(SharedMatrix target) {
+        ensureOpen();
+        long size = (long) rows * cols;
+        if (size > MAX_ARRAY_LENGTH)
+            throw new IllegalArgumentException("A " + rows + "x" + cols + " matrix doesn't fit in one heap array");
+        double[] flat = target.allocate((int) size);
+        for (int c=0; c<chunks.length; c++) {
+            DoubleBuffer chunk = chunks[c].asDoubleBuffer();
+            chunk.get(0, flat, (int) ((long) c * rowsPerChunk * cols), chunk.capacity());
+        }
+        target.loadRowMajor(flat, rows, cols);
+    }
+
+    public synchronized double[][] toArray() {
+        ensureOpen();
+        double[][] matrix = new double[rows][cols];
+        for (int i=0; i<rows; i++) {
+            chunks[i / rowsPerChunk].asDoubleBuffer().get((i % rowsPerChunk) * cols, matrix[i]);
+        }
+        return matrix;
+    }
+
+    /**
+     * Releases the native memory now instead of waiting for the garbage collector.
+     */
+    @Override
+    public synchronized void close() {
+        if (chunks == null)
+            return;
+        ByteBuffer[] released = chunks;
+        chunks = null;
+        if (INVOKE_CLEANER != null) {
+            for (ByteBuffer chunk : released) {
+                try {
+                    INVOKE_CLEANER.invoke(UNSAFE, chunk);
+                } catch (ReflectiveOperationException e) {
+                    // the buffer is left to the garbage collector
+                }
+            }
+        }
+    }
+
+    private synchronized void putRow(int i, double[] row) {
+        ensureOpen();
+        chunks[i / rowsPerChunk].asDoubleBuffer().put((i % rowsPerChunk) * cols, row, 0, cols);
+    }
+
+    private void ensureOpen() {
+        if (chunks == null)
+            throw new IllegalStateException("Off-heap matrix is closed");
+    }
+}
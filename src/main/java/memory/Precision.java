@@ -0,0 +1,11 @@
+package memory;
+/**
+ * Storage and compute precision of matrices.
+ * DOUBLE stores and computes in 64-bit doubles.
+ * FLOAT stores matrices as 32-bit floats (half the memory) and computes in float,
+ * with dot products optionally accumulated in double.
+ */
+public enum Precision {
+    DOUBLE,
+    FLOAT
+}
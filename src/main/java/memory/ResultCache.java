@@ -0,0 +1,354 @@
+package memory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A cache of computed matrices keyed by the content hash of the expression that produced them.
+ * Entries are kept in memory up to a byte budget and evicted least recently used first.
+ * With a directory, every entry is also written to disk, and entries missing from memory are
+ * looked up there, so results survive process restarts. Disk writes run on a background
+ * thread of the cache, in order; flush waits for them. The disk copy has its own byte
+ * budget, also evicted least recently used first, and starts from the files already there.
+ * The cache owns its matrices: put and get copy them, adopt takes them. One cache may be
+ * shared by engines running in different threads.
+ */
+public class ResultCache {
+
+    private final long maxBytes;
+    private final long maxDiskBytes;
+    private final Path directory; // null for a memory-only cache
+    private final LinkedHashMap<String, double[][]> entries = new LinkedHashMap<>(16, 0.75f, true); // in LRU order
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true); // sizes, in LRU order
+    private final Map<String, double[][]> writing = new HashMap<>(); // queued for disk, not written yet
+    private final ThreadPoolExecutor writer; // null for a memory-only cache
+    private Future<?> lastWrite = null;
+    private long bytes = 0;
+    private long diskBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long diskHits = 0;
+    private long bytesSaved = 0; // size of the results served instead of computed
+    private long diskErrors = 0;
+
+    public ResultCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    public ResultCache(long maxBytes, Path directory) {
+        this(maxBytes, directory, maxBytes);
+    }
+
+    public ResultCache(long maxBytes, Path directory, long maxDiskBytes) {
+        if (maxBytes < 0 || maxDiskBytes < 0)
+            throw new IllegalArgumentException("Illegal cache size");
+        this.maxBytes = maxBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.directory = directory;
+        if (directory == null) {
+            writer = null;
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            loadDiskEntries();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't use cache directory " + directory, e);
+        }
+        writer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), run -> {
+            Thread thread = new Thread(run, "result-cache-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.allowCoreThreadTimeOut(true); // no idle thread per cache
+    }
+
+    /**
+     * Returns a copy of the cached result, or null if there is none.
+     * Disk reads run outside the monitor, so they don't block other users of the cache.
+     * An unreadable file counts as a miss and a disk error, and its entry is dropped.
+     */
+    public double[][] get(String key) {
+        double[][] matrix;
+        synchronized (this) {
+            matrix = entries.get(key);
+            if (matrix == null)
+                matrix = writing.get(key);
+            if (matrix == null && (directory == null || diskEntries.get(key) == null)) {
+                misses++;
+                return null;
+            }
+            if (matrix != null)
+                return copyOf(hit(matrix));
+        }
+        boolean readable = true;
+        try {
+            matrix = readFromDisk(key);
+        } catch (IOException e) {
+            readable = false;
+        }
+        synchronized (this) {
+            if (matrix == null) {
+                misses++;
+                if (!readable)
+                    diskErrors++;
+                Long size = writing.containsKey(key) ? null : diskEntries.remove(key); // unless put again meanwhile
+                if (size != null) {
+                    diskBytes -= size;
+                    if (!readable)
+                        lastWrite = writer.submit(() -> deleteFromDisk(key));
+                }
+                return null;
+            }
+            diskHits++;
+            if (!entries.containsKey(key))
+                keepInMemory(key, matrix);
+            return copyOf(hit(matrix));
+        }
+    }
+
+    private double[][] hit(double[][] matrix) {
+        hits++;
+        bytesSaved += sizeOf(matrix);
+        return matrix;
+    }
+
+    public void put(String key, double[][] matrix) {
+        if (key == null || matrix == null)
+            throw new IllegalArgumentException("Key or matrix is null");
+        adopt(key, copyOf(matrix));
+    }
+
+    /**
+     * Like put, but keeps matrix itself instead of a copy; the caller must not change it afterwards.
+     */
+    public synchronized void adopt(String key, double[][] matrix) {
+        if (key == null || matrix == null)
+            throw new IllegalArgumentException("Key or matrix is null");
+        if (entries.containsKey(key))
+            return;
+        keepInMemory(key, matrix);
+        if (directory != null && !diskEntries.containsKey(key))
+            keepOnDisk(key, matrix);
+    }
+
+    /**
+     * Waits until every disk write queued so far is done. Writes still queued when the
+     * process exits are lost.
+     */
+    public void flush() {
+        Future<?> last;
+        synchronized (this) {
+            last = lastWrite;
+        }
+        if (last == null)
+            return;
+        try {
+            last.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Disk write failed", e.getCause());
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public synchronized String getReport() {
+        return "--- Result Cache ---\n" +
+                "Hits: " + hits + " (" + diskHits + " from disk), Misses: " + misses +
+                ", Hit rate: " + getHitRate() + ", Bytes saved: " + bytesSaved +
+                ", Entries: " + entries.size() + ", Bytes: " + bytes + ", Disk bytes: " + diskBytes +
+                ", Disk errors: " + diskErrors + "\n";
+    }
+
+    private void keepInMemory(String key, double[][] matrix) {
+        long size = sizeOf(matrix);
+        if (size > maxBytes)
+            return;
+        entries.put(key, matrix);
+        bytes += size;
+        Iterator<Map.Entry<String, double[][]>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= sizeOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Queues the write of matrix and the deletion of the files it evicts from the disk budget.
+     */
+    private void keepOnDisk(String key, double[][] matrix) {
+        long size = fileSizeOf(matrix);
+        if (size > maxDiskBytes || matrix.length > 0 && matrix[0].length == 0)
+            return;
+        diskEntries.put(key, size);
+        diskBytes += size;
+        writing.put(key, matrix);
+        lastWrite = writer.submit(() -> {
+            writeToDisk(key, matrix);
+            synchronized (this) {
+                writing.remove(key, matrix);
+            }
+        });
+        Iterator<Map.Entry<String, Long>> eldest = diskEntries.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            String evicted = entry.getKey();
+            diskBytes -= entry.getValue();
+            eldest.remove();
+            lastWrite = writer.submit(() -> deleteFromDisk(evicted));
+        }
+    }
+
+    /**
+     * Lists the entries already in the directory, the least recently modified first.
+     */
+    private void loadDiskEntries() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(file -> file.getFileName().toString().endsWith(".bin"))
+                    .sorted(Comparator.comparing(file -> file.toFile().lastModified()))
+                    .toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long size = Files.size(file);
+            diskEntries.put(name.substring(0, name.length() - ".bin".length()), size);
+            diskBytes += size;
+        }
+    }
+
+    /**
+     * Reads an entry, or returns null if its file is gone. Throws if the file can't be read
+     * or its header doesn't match its size, e.g. a corrupt or foreign file.
+     * Touches no state of the cache, it runs outside the monitor.
+     */
+    private double[][] readFromDisk(String key) throws IOException {
+        Path file = directory.resolve(key + ".bin");
+        if (!Files.exists(file))
+            return null;
+        long fileSize = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int rows = in.readInt();
+            int cols = in.readInt();
+            long values = (fileSize - 2L * Integer.BYTES) / Double.BYTES;
+            // rows without columns are never written, their count couldn't be checked against the size
+            if (rows < 0 || cols < 0 || rows > 0 && cols == 0 || (fileSize - 2L * Integer.BYTES) % Double.BYTES != 0
+                    || (long) rows * cols != values)
+                throw new IOException("Header of " + file + " doesn't match its size");
+            double[][] matrix = new double[rows][cols];
+            for (double[] row : matrix) {
+                for (int j=0; j<cols; j++) {
+                    row[j] = in.readDouble();
+                }
+            }
+            return matrix;
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so a crash never leaves a partial entry behind.
+     * Runs on the writer thread.
+     */
+    private void writeToDisk(String key, double[][] matrix) {
+        Path file = directory.resolve(key + ".bin");
+        if (Files.exists(file))
+            return;
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                int cols = matrix.length > 0 ? matrix[0].length : 0;
+                out.writeInt(matrix.length);
+                out.writeInt(cols);
+                for (double[] row : matrix) {
+                    for (double value : row) {
+                        out.writeDouble(value);
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            synchronized (this) {
+                diskErrors++;
+            }
+            try {
+                if (temp != null)
+                    Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // the temporary file is left behind, it is never read
+            }
+        }
+    }
+
+    private void deleteFromDisk(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key + ".bin"));
+        } catch (IOException e) {
+            synchronized (this) {
+                diskErrors++;
+            }
+        }
+    }
+
+    private static long fileSizeOf(double[][] matrix) {
+        return 2L * Integer.BYTES + sizeOf(matrix);
+    }
+
+    private static long sizeOf(double[][] matrix) {
+        long size = 0;
+        for (double[] row : matrix) {
+            size += (long) row.length * Double.BYTES;
+        }
+        return size;
+    }
+
+    private static double[][] copyOf(double[][] matrix) {
+        double[][] copy = new double[matrix.length][];
+        for (int i=0; i<matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,43 @@
+package memory;
+
+/**
+ * Plain loops; the fallback when the Vector API isn't available.
+ * Multiply-adds round twice: Math.fma is a slow software routine on CPUs without FMA.
+ */
+public class ScalarKernels implements ElementKernels {
+
+    @Override
+    public void add(double[] dst, int dstOff, double[] src, int srcOff, int length) {
+        for (int i=0; i<length; i++) {
+            dst[dstOff + i] += src[srcOff + i];
+        }
+    }
+
+    @Override
+    public void scaledAdd(double[] dst, int dstOff, double alpha, double[] src, int srcOff, int length) {
+        for (int i=0; i<length; i++) {
+            dst[dstOff + i] += alpha * src[srcOff + i];
+        }
+    }
+
+    @Override
+    public void negate(double[] dst, int dstOff, int length) {
+        for (int i=0; i<length; i++) {
+            dst[dstOff + i] = -dst[dstOff + i];
+        }
+    }
+
+    @Override
+    public double dot(double[] a, int aOff, double[] b, int bOff, int length) {
+        double sum = 0;
+        for (int i=0; i<length; i++) {
+            sum += a[aOff + i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -1,86 +1,319 @@
 package memory;
 
+/**
+ * A matrix stored as vector views over one contiguous array.
+ * Vectors are guarded by striped locks: consecutive vectors are grouped into at most
+ * lockStripes bands, and all vectors of a band share one lock. A task working on a block
+ * of rows locks the bands it covers, and a whole-matrix snapshot takes O(stripes) locks
+ * instead of one per vector. Band locks are reentrant, so a thread may lock several
+ * vectors of a band, or read a band it write locked; but locking one vector locks its
+ * whole band, and a thread holding a band's read lock can't write lock any vector of it.
+ * Transpose and negation are lazy views: vectors keep the stored values, and the
+ * orientation and sign are applied by readRowMajor and by the kernels reading the matrix.
+ * get(i) writes a pending negation into the storage first, so its vectors always hold
+ * the values of the matrix; kernels folding the sign themselves use storedVector(i).
+ */
 public class SharedMatrix {
 
-    private volatile SharedVector[] vectors = {}; // underlying vectors
+    public static final int DEFAULT_LOCK_STRIPES = 64;
+    private static final int TRANSPOSE_BLOCK = 32; // tile size of the cache-blocked transpose copy
+
+    private volatile SharedVector[] vectors = {}; // underlying vectors (views over data)
+    private double[] data; // whole matrix in one contiguous array, laid out as described by the vectors
+    private final BufferPool pool; // source of data buffers, or null to allocate them
+    private final int lockStripes; // maximal number of lock bands
+    private volatile boolean negated = false; // the matrix is minus its stored values
 
     public SharedMatrix() {
         // TODO: initialize empty matrix
+        this((BufferPool) null);
+    }
+
+    /**
+     * Creates an empty matrix whose storage comes from pool. The rows returned by
+     * readRowMajor are always new arrays, the caller keeps them.
+     * Pooled storage goes back to the pool only through release().
+     */
+    public SharedMatrix(BufferPool pool) {
+        this(pool, DEFAULT_LOCK_STRIPES);
+    }
+
+    /**
+     * Creates an empty matrix whose vectors are guarded by at most lockStripes locks.
+     */
+    public SharedMatrix(BufferPool pool, int lockStripes) {
+        if (lockStripes <= 0)
+            throw new IllegalArgumentException("Illegal number of lock stripes");
+        this.pool = pool;
+        this.lockStripes = lockStripes;
         vectors = null;
     }
 
     public SharedMatrix(double[][] matrix) {
         // TODO: construct matrix as row-major SharedVectors
-        vectors = new SharedVector[matrix.length];
-        for (int i=0; i < matrix.length; i++) {
-            double[] curr_vector = new double[matrix[i].length];
-            for (int j=0 ; j < matrix[i].length; j++){
-                curr_vector[j] = matrix[i][j];
-            }
-            vectors[i] = new SharedVector(curr_vector, VectorOrientation.ROW_MAJOR);
-        }
+        this.pool = null;
+        this.lockStripes = DEFAULT_LOCK_STRIPES;
+        load(matrix);
+    }
+
+    /**
+     * Creates a zero-filled row-major matrix, used as the output of kernels.
+     */
+    public SharedMatrix(int rows, int cols) {
+        this(rows, cols, null);
+    }
+
+    public SharedMatrix(int rows, int cols, BufferPool pool) {
+        if (rows < 0 || cols < 0)
+            throw new IllegalArgumentException("Illegal matrix size");
+        this.pool = pool;
+        this.lockStripes = DEFAULT_LOCK_STRIPES;
+        int length = elementCount(rows, cols);
+        double[] newData = pool != null ? pool.acquireZeroed(length) : new double[length];
+        publish(newData, views(newData, rows, cols, cols, 1, VectorOrientation.ROW_MAJOR));
     }
 
     public void loadRowMajor(double[][] matrix) {
         // TODO: replace internal data with new row-major matrix
-        if (matrix == null)
-            throw new IllegalArgumentException("Matrix is null");
-        SharedVector[] newVectors = new SharedVector[matrix.length];
-        for (int i=0; i<matrix.length; i++) {
-            newVectors[i] = new SharedVector(matrix[i], VectorOrientation.ROW_MAJOR);
-        }
-        vectors = newVectors;
+        load(matrix);
+    }
+
+    /**
+     * loadRowMajor, not overridable, so the constructor doesn't call into a subclass.
+     */
+    private void load(double[][] matrix) {
+        double[] newData = flatten(matrix);
+        int width = matrix.length > 0 ? matrix[0].length : 0;
+        negated = false;
+        publish(newData, views(newData, matrix.length, width, width, 1, VectorOrientation.ROW_MAJOR));
+    }
+
+    /**
+     * Replaces internal data with a row-major matrix already flattened into one array.
+     * The array is used as is, without copying.
+     */
+    void loadRowMajor(double[] flat, int rows, int cols) {
+        if (flat == null || rows < 0 || cols < 0 || flat.length < elementCount(rows, cols))
+            throw new IllegalArgumentException("Illegal matrix size");
+        negated = false;
+        publish(flat, views(flat, rows, cols, cols, 1, VectorOrientation.ROW_MAJOR));
     }
 
     public void loadColumnMajor(double[][] matrix) {
         // TODO: replace internal data with new column-major matrix
-        if (matrix == null)
+        double[] newData = flatten(matrix);
+        int width = matrix.length > 0 ? matrix[0].length : 0;
+        // column i starts at its first element and jumps a whole row between elements
+        negated = false;
+        publish(newData, views(newData, width, matrix.length, 1, width, VectorOrientation.COLUMN_MAJOR));
+    }
+
+    /**
+     * Replaces internal data with a copy of source, in the same orientation and with the same
+     * sign, so no view is applied while copying.
+     */
+    public void loadFrom(SharedMatrix source) {
+        if (source == null)
             throw new IllegalArgumentException("Matrix is null");
-        SharedVector[] newVectors = new SharedVector[matrix[0].length];
-        for (int i=0; i < matrix[0].length; i++) {
-            double[] curr_vector = new double[matrix.length];
-            for (int j=0 ; j < matrix.length; j++){
-                curr_vector[j] = matrix[j][i];
+        SharedVector[] vecs = source.vectors;
+        if (vecs == null)
+            throw new IllegalArgumentException("Matrix is empty");
+        double[] newData;
+        int size;
+        boolean sourceNegated;
+        source.acquireAllVectorReadLocks(vecs);
+        try {
+            size = vecs.length > 0 ? vecs[0].size() : 0;
+            newData = allocate(elementCount(vecs.length, size));
+            for (int i=0; i<vecs.length; i++) {
+                vecs[i].copyInto(newData, i*size);
             }
-            newVectors[i] = new SharedVector(curr_vector, VectorOrientation.COLUMN_MAJOR);
+            sourceNegated = source.negated;
+        } finally {
+            source.releaseAllVectorReadLocks(vecs);
         }
-        vectors = newVectors;
+        VectorOrientation orientation = vecs.length > 0 ? vecs[0].orientation() : VectorOrientation.ROW_MAJOR;
+        negated = sourceNegated;
+        publish(newData, views(newData, vecs.length, size, size, 1, orientation));
     }
 
+    /**
+     * Returns a consistent snapshot of the matrix, taking every stripe's read lock at once.
+     */
     public double[][] readRowMajor() {
         // TODO: return matrix contents as a row-major double[][]
-        if (vectors!=null){
-            acquireAllVectorReadLocks(vectors);
-            double[][] matrix;
-            if (getOrientation() == VectorOrientation.ROW_MAJOR) {
-                matrix = new double[vectors.length][vectors[0].length()];
-                for  (int i=0; i<vectors.length; i++) {
-                    for (int j=0; j<vectors[i].length(); j++){
-                        matrix[i][j] = vectors[i].get(j);
+        SharedVector[] vecs = vectors;
+        if (vecs!=null){
+            acquireAllVectorReadLocks(vecs);
+            try {
+                double[][] matrix;
+                if (vecs.length == 0) {
+                    matrix = new double[0][];
+                } else if (vecs[0].orientation() == VectorOrientation.ROW_MAJOR) {
+                    matrix = new double[vecs.length][];
+                    for (int i=0; i<vecs.length; i++) {
+                        matrix[i] = new double[vecs[i].size()];
+                        vecs[i].copyInto(matrix[i], 0);
+                        if (negated)
+                            negateRow(matrix[i]);
+                    }
+                } else {
+                    double sign = negated ? -1.0 : 1.0;
+                    matrix = new double[vecs[0].size()][];
+                    for (int j=0; j<matrix.length; j++) {
+                        matrix[j] = new double[vecs.length];
                     }
+                    // cache-blocked transpose: vector i becomes column i of the result
+                    for (int ib=0; ib<vecs.length; ib+=TRANSPOSE_BLOCK) {
+                        int iEnd = Math.min(ib + TRANSPOSE_BLOCK, vecs.length);
+                        for (int jb=0; jb<matrix.length; jb+=TRANSPOSE_BLOCK) {
+                            int jEnd = Math.min(jb + TRANSPOSE_BLOCK, matrix.length);
+                            for (int i=ib; i<iEnd; i++) {
+                                SharedVector vec = vecs[i];
+                                for (int j=jb; j<jEnd; j++) {
+                                    matrix[j][i] = sign * vec.at(j);
+                                }
+                            }
+                        }
+                    }
+                }
+                return matrix;
+            } finally {
+                releaseAllVectorReadLocks(vecs);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Transposes the matrix as a view: no element is moved.
+     * Every vector flips its orientation, so the rows of the matrix become its columns
+     * and the other way around. Kernels read the view directly, and a physical copy is
+     * only made by materialize() or readRowMajor().
+     */
+    public void transpose() {
+        SharedVector[] vecs = vectors;
+        if (vecs == null)
+            return;
+        acquireAllVectorWriteLocks(vecs);
+        try {
+            for (SharedVector vec : vecs) {
+                vec.flipOrientation();
+            }
+        } finally {
+            releaseAllVectorWriteLocks(vecs);
+        }
+    }
+
+    /**
+     * Negates the matrix as a view: no element is written, the sign is applied when
+     * the matrix is read out or folded into the next kernel.
+     */
+    public void negate() {
+        SharedVector[] vecs = vectors;
+        if (vecs == null)
+            return;
+        acquireAllVectorWriteLocks(vecs);
+        try {
+            negated = !negated;
+        } finally {
+            releaseAllVectorWriteLocks(vecs);
+        }
+    }
+
+    /**
+     * Returns true if the values of the matrix are minus the values stored in its vectors.
+     */
+    public boolean isNegated() {
+        return negated;
+    }
+
+    /**
+     * Rewrites the storage so every vector is contiguous and has the given orientation.
+     * Does nothing if the matrix is already laid out that way. Switching orientation
+     * uses a cache-blocked transpose.
+     */
+    public void materialize(VectorOrientation target) {
+        SharedVector[] vecs = vectors;
+        if (vecs == null || vecs.length == 0 || target == null)
+            return;
+        double[] newData;
+        int lines;
+        int width;
+        acquireAllVectorReadLocks(vecs);
+        try {
+            boolean sameOrientation = vecs[0].orientation() == target;
+            if (sameOrientation && isContiguous(vecs))
+                return;
+            int size = vecs[0].size();
+            newData = allocate(elementCount(vecs.length, size));
+            if (sameOrientation) {
+                lines = vecs.length;
+                width = size;
+                for (int i=0; i<vecs.length; i++) {
+                    vecs[i].copyInto(newData, i*size);
                 }
             } else {
-                matrix = new double[vectors[0].length()][vectors.length];
-                for  (int i=0; i<vectors.length; i++) {
-                    for (int j=0; j<vectors[0].length(); j++){
-                        matrix[j][i] = vectors[i].get(j);
+                lines = size;
+                width = vecs.length;
+                for (int ib=0; ib<vecs.length; ib+=TRANSPOSE_BLOCK) {
+                    int iEnd = Math.min(ib + TRANSPOSE_BLOCK, vecs.length);
+                    for (int jb=0; jb<size; jb+=TRANSPOSE_BLOCK) {
+                        int jEnd = Math.min(jb + TRANSPOSE_BLOCK, size);
+                        for (int i=ib; i<iEnd; i++) {
+                            SharedVector vec = vecs[i];
+                            for (int j=jb; j<jEnd; j++) {
+                                newData[j*width + i] = vec.at(j);
+                            }
+                        }
                     }
                 }
             }
-            releaseAllVectorReadLocks(vectors);
-            return matrix;
+        } finally {
+            releaseAllVectorReadLocks(vecs);
         }
-        return null;
+        publish(newData, views(newData, lines, width, width, 1, target));
     }
 
     public SharedVector get(int index) {
         // TODO: return vector at index
-        if (vectors != null) {
-            return vectors[index];
+        applySign();
+        return storedVector(index);
+    }
+
+    /**
+     * Returns vector index over the stored values, without applying a lazy negation:
+     * its values are minus the matrix's when isNegated(). For kernels that fold the sign in.
+     */
+    public SharedVector storedVector(int index) {
+        SharedVector[] vecs = vectors;
+        if (vecs != null) {
+            return vecs[index];
         }
         return null;
     }
 
+    /**
+     * Writes a pending lazy negation into the storage. A thread holding a read lock of
+     * the matrix can't do it, see VectorLock.
+     */
+    private void applySign() {
+        SharedVector[] vecs = vectors;
+        if (!negated || vecs == null)
+            return;
+        acquireAllVectorWriteLocks(vecs);
+        try {
+            if (negated) {
+                for (SharedVector vec : vecs) {
+                    vec.negate();
+                }
+                negated = false;
+            }
+        } finally {
+            releaseAllVectorWriteLocks(vecs);
+        }
+    }
+
     public int length() {
         // TODO: return number of stored vectors
         if (vectors != null) {
@@ -89,6 +322,26 @@ public class SharedMatrix {
         return 0;
     }
 
+    /**
+     * Returns the number of rows of the matrix, whatever its orientation.
+     */
+    public int rowCount() {
+        SharedVector[] vecs = vectors;
+        if (vecs == null || vecs.length == 0)
+            return 0;
+        return vecs[0].getOrientation() == VectorOrientation.ROW_MAJOR ? vecs.length : vecs[0].length();
+    }
+
+    /**
+     * Returns the number of columns of the matrix, whatever its orientation.
+     */
+    public int columnCount() {
+        SharedVector[] vecs = vectors;
+        if (vecs == null || vecs.length == 0)
+            return 0;
+        return vecs[0].getOrientation() == VectorOrientation.ROW_MAJOR ? vecs[0].length() : vecs.length;
+    }
+
     public VectorOrientation getOrientation() {
         // TODO: return orientation
         if (vectors != null && vectors.length>0) {
@@ -97,31 +350,208 @@ public class SharedMatrix {
         return null;
     }
 
+    /**
+     * Enables optimistic reads on every vector, for operands that are only read.
+     */
+    public void setOptimisticReads(boolean enabled) {
+        SharedVector[] vecs = vectors;
+        if (vecs != null) {
+            for (SharedVector vec : vecs) {
+                vec.setOptimisticReads(enabled);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lock stripes guarding the current vectors.
+     */
+    public int stripeCount() {
+        SharedVector[] vecs = vectors;
+        return vecs == null ? 0 : stripes(vecs);
+    }
+
+    /**
+     * Acquires the read lock of every stripe, for kernels that read the whole matrix.
+     */
+    void readLockAll() {
+        acquireAllVectorReadLocks(vectors);
+    }
+
+    void readUnlockAll() {
+        releaseAllVectorReadLocks(vectors);
+    }
+
+    /**
+     * Locks the stripes covering vectors [start, end), for kernels working on a block of rows.
+     */
+    void readLockRange(int start, int end) {
+        SharedVector[] vecs = vectors;
+        for (int s=firstStripe(vecs, start, end); s<=lastStripe(vecs, start, end); s++) {
+            vecs[stripeStart(vecs, s)].readLock();
+        }
+    }
+
+    void readUnlockRange(int start, int end) {
+        SharedVector[] vecs = vectors;
+        for (int s=firstStripe(vecs, start, end); s<=lastStripe(vecs, start, end); s++) {
+            vecs[stripeStart(vecs, s)].readUnlock();
+        }
+    }
+
+    void writeLockRange(int start, int end) {
+        SharedVector[] vecs = vectors;
+        for (int s=firstStripe(vecs, start, end); s<=lastStripe(vecs, start, end); s++) {
+            vecs[stripeStart(vecs, s)].writeLock();
+        }
+    }
+
+    void writeUnlockRange(int start, int end) {
+        SharedVector[] vecs = vectors;
+        for (int s=firstStripe(vecs, start, end); s<=lastStripe(vecs, start, end); s++) {
+            vecs[stripeStart(vecs, s)].writeUnlock();
+        }
+    }
+
+    /**
+     * Returns the storage to the pool and empties the matrix.
+     * Vectors previously returned by get() must not be used afterwards.
+     */
+    public void release() {
+        double[] old = data;
+        data = null;
+        vectors = null;
+        negated = false;
+        if (pool != null && old != null)
+            pool.release(old);
+    }
+
+    /**
+     * Returns a storage buffer of at least length elements, from the pool if there is one.
+     * Final, as the constructors call it.
+     */
+    final double[] allocate(int length) {
+        return pool != null ? pool.acquire(length) : new double[length];
+    }
+
+    /**
+     * Returns rows * cols, or throws if the matrix doesn't fit in one array.
+     */
+    private static int elementCount(int rows, int cols) {
+        try {
+            return Math.multiplyExact(rows, cols);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("A " + rows + "x" + cols + " matrix doesn't fit in one array", e);
+        }
+    }
+
+    private static void negateRow(double[] row) {
+        for (int j=0; j<row.length; j++) {
+            row[j] = -row[j];
+        }
+    }
+
+    /**
+     * Copies a row-major double[][] into a single contiguous array.
+     */
+    private double[] flatten(double[][] matrix) {
+        if (matrix == null)
+            throw new IllegalArgumentException("Matrix is null");
+        int width = matrix.length > 0 ? matrix[0].length : 0;
+        for (int i=0; i<matrix.length; i++) {
+            if (matrix[i] == null || matrix[i].length != width)
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix");
+        }
+        double[] flat = allocate(elementCount(matrix.length, width));
+        for (int i=0; i<matrix.length; i++) {
+            System.arraycopy(matrix[i], 0, flat, i*width, width);
+        }
+        return flat;
+    }
+
+    /**
+     * Builds count vector views of length size over data;
+     * vector i starts at i * lineStride and its elements are elementStride apart.
+     * Vectors of the same stripe share a lock.
+     */
+    private SharedVector[] views(double[] data, int count, int size, int lineStride, int elementStride, VectorOrientation orientation) {
+        SharedVector[] newVectors = new SharedVector[count];
+        int stripes = Math.min(lockStripes, count);
+        VectorLock stripeLock = null;
+        for (int i=0, stripe=-1; i<count; i++) {
+            int s = (int) ((long) i * stripes / count);
+            if (s != stripe) {
+                stripe = s;
+                stripeLock = new VectorLock();
+            }
+            newVectors[i] = new SharedVector(data, i*lineStride, elementStride, size, orientation, stripeLock);
+        }
+        return newVectors;
+    }
+
+    /**
+     * Stripe s holds vectors [stripeStart(s), stripeStart(s + 1)).
+     */
+    private int stripes(SharedVector[] vecs) {
+        return Math.min(lockStripes, vecs.length);
+    }
+
+    private int stripeOf(SharedVector[] vecs, int index) {
+        return (int) ((long) index * stripes(vecs) / vecs.length);
+    }
+
+    private int stripeStart(SharedVector[] vecs, int stripe) {
+        int stripes = stripes(vecs);
+        return (int) (((long) stripe * vecs.length + stripes - 1) / stripes);
+    }
+
+    private int firstStripe(SharedVector[] vecs, int start, int end) {
+        if (vecs == null || start < 0 || end > vecs.length || start > end)
+            throw new IndexOutOfBoundsException();
+        return start == end ? 0 : stripeOf(vecs, start);
+    }
+
+    private int lastStripe(SharedVector[] vecs, int start, int end) {
+        return start == end ? -1 : stripeOf(vecs, end - 1);
+    }
+
+    private static boolean isContiguous(SharedVector[] vecs) {
+        for (SharedVector vec : vecs) {
+            if (vec.stride() != 1)
+                return false;
+        }
+        return true;
+    }
+
+    private void publish(double[] newData, SharedVector[] newVectors) {
+        data = newData;
+        vectors = newVectors; // volatile write publishes the storage above
+    }
+
     private void acquireAllVectorReadLocks(SharedVector[] vecs) {
         // TODO: acquire read lock for each vector
-        for (int i=0; i<vecs.length; i++){
-            vecs[i].readLock();
+        for (int s=0; s<stripes(vecs); s++){
+            vecs[stripeStart(vecs, s)].readLock();
         }
     }
 
     private void releaseAllVectorReadLocks(SharedVector[] vecs) {
         // TODO: release read locks
-        for (int i=0; i<vecs.length; i++){
-            vecs[i].readUnlock();
+        for (int s=0; s<stripes(vecs); s++){
+            vecs[stripeStart(vecs, s)].readUnlock();
         }
     }
 
     private void acquireAllVectorWriteLocks(SharedVector[] vecs) {
         // TODO: acquire write lock for each vector
-        for (int i=0; i<vecs.length; i++){
-            vecs[i].writeLock();
+        for (int s=0; s<stripes(vecs); s++){
+            vecs[stripeStart(vecs, s)].writeLock();
         }
     }
 
     private void releaseAllVectorWriteLocks(SharedVector[] vecs) {
         // TODO: release write locks
-        for (int i=0; i<vecs.length; i++){
-            vecs[i].writeUnlock();
+        for (int s=0; s<stripes(vecs); s++){
+            vecs[stripeStart(vecs, s)].writeUnlock();
         }
     }
 }
@@ -1,29 +1,78 @@
 package memory;
 
-import java.util.concurrent.locks.ReadWriteLock;
-
 public class SharedVector {
 
-    private double[] vector;
+    private double[] vector; // backing storage, possibly shared with a SharedMatrix
+    private int offset; // index of the first element inside the backing storage
+    private int stride; // distance between consecutive elements inside the backing storage
+    private int length; // number of elements in this vector
     private VectorOrientation orientation;
-    private ReadWriteLock lock = new java.util.concurrent.locks.ReentrantReadWriteLock();
+    private final VectorLock lock; // may be shared with the other vectors of a matrix stripe
+    private final boolean matrixView; // a slice of a SharedMatrix's storage, it can't be replaced
+    private volatile boolean optimisticReads = false; // read-mostly vectors skip the read lock when possible
 
     public SharedVector(double[] vector, VectorOrientation orientation) {
         // TODO: store vector data and its orientation
-        this.vector = vector;
+        this(vector, 0, 1, vector == null ? 0 : vector.length, orientation);
+    }
+
+    /**
+     * Creates a view over a strided slice of a shared backing array.
+     * No data is copied: element i is stored at data[offset + i * stride].
+     */
+    SharedVector(double[] data, int offset, int stride, int length, VectorOrientation orientation) {
+        this(data, offset, stride, length, orientation, new VectorLock(), false);
+    }
+
+    /**
+     * A vector of a matrix, guarded by a lock shared with other vectors: locking this vector
+     * locks all of them. The lock is reentrant, but a thread holding the read lock of one
+     * of them can't write lock any of them, see VectorLock.
+     */
+    SharedVector(double[] data, int offset, int stride, int length, VectorOrientation orientation, VectorLock lock) {
+        this(data, offset, stride, length, orientation, lock, true);
+    }
+
+    private SharedVector(double[] data, int offset, int stride, int length, VectorOrientation orientation,
+                         VectorLock lock, boolean matrixView) {
+        this.lock = lock;
+        this.matrixView = matrixView;
+        this.vector = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.length = length;
         this.orientation = orientation;
     }
 
+    /**
+     * Enables or disables optimistic reads.
+     * When enabled, readers first try a StampedLock optimistic read and only take
+     * the read lock if a writer interfered. Meant for operands that are rarely written.
+     */
+    public void setOptimisticReads(boolean enabled) {
+        optimisticReads = enabled;
+    }
+
     public double get(int index) {
         // TODO: return element at index (read-locked)
+        if (optimisticReads) {
+            long stamp = lock.tryOptimisticRead();
+            double[] data = vector;
+            int off = offset, str = stride, len = length;
+            if (stamp != 0 && data != null && index >= 0 && index < len && off + index*str < data.length) {
+                double value = data[off + index*str];
+                if (lock.validate(stamp))
+                    return value;
+            }
+        }
         readLock();
         try{
             if (vector == null)
                 throw new NullPointerException();
-            if (vector.length<=index) {
+            if (index < 0 || length<=index) {
                 throw new IndexOutOfBoundsException();
             }
-            return vector[index];
+            return vector[offset + index*stride];
         } finally {
             readUnlock();
         }
@@ -31,16 +80,22 @@ public class SharedVector {
 
     public int length() {
         // TODO: return vector length
+        if (optimisticReads) {
+            long stamp = lock.tryOptimisticRead();
+            int len = vector != null ? length : 0;
+            if (stamp != 0 && lock.validate(stamp))
+                return len;
+        }
         readLock();
         try {
             if (vector!=null) {
-                return vector.length;
+                return length;
             }
             return 0;
         } finally {
             readUnlock();
         }
-        
+
     }
 
     public VectorOrientation getOrientation() {
@@ -58,22 +113,128 @@ public class SharedVector {
 
     public void writeLock() {
         // TODO: acquire write lock
-        lock.writeLock().lock();
+        lock.writeLock();
     }
 
     public void writeUnlock() {
         // TODO: release write lock
-        lock.writeLock().unlock();
+        lock.writeUnlock();
     }
 
     public void readLock() {
         // TODO: acquire read lock
-        lock.readLock().lock();
+        lock.readLock();
     }
 
     public void readUnlock() {
         // TODO: release read lock
-        lock.readLock().unlock();
+        lock.readUnlock();
+    }
+
+    /**
+     * Raw accessors for kernels working directly on the backing storage;
+     * the caller must hold this vector's lock.
+     */
+    double[] data() {
+        return vector;
+    }
+
+    int offset() {
+        return offset;
+    }
+
+    int stride() {
+        return stride;
+    }
+
+    int size() {
+        return length;
+    }
+
+    VectorOrientation orientation() {
+        return orientation;
+    }
+
+    /**
+     * Flips the orientation without locking; the caller must hold the write lock.
+     */
+    void flipOrientation() {
+        orientation = orientation == VectorOrientation.ROW_MAJOR ? VectorOrientation.COLUMN_MAJOR : VectorOrientation.ROW_MAJOR;
+    }
+
+    /**
+     * Returns element at index without locking; the caller must hold this vector's lock.
+     */
+    double at(int index) {
+        return vector[offset + index*stride];
+    }
+
+    /**
+     * Copies the elements into dst starting at dstOffset without locking;
+     * the caller must hold this vector's lock.
+     */
+    void copyInto(double[] dst, int dstOffset) {
+        if (stride == 1) {
+            System.arraycopy(vector, offset, dst, dstOffset, length);
+        } else {
+            for (int i=0, j=offset; i<length; i++, j+=stride) {
+                dst[dstOffset + i] = vector[j];
+            }
+        }
+    }
+
+    /**
+     * Copies all elements into dst starting at dstOffset, taking the lock once.
+     */
+    public void copyTo(double[] dst, int dstOffset) {
+        if (dst == null)
+            throw new IllegalArgumentException("Destination is null");
+        if (optimisticReads) {
+            long stamp = lock.tryOptimisticRead();
+            double[] data = vector;
+            int off = offset, str = stride, len = length;
+            if (stamp != 0 && data != null && fits(data, off, str, len) && dstOffset >= 0 && dstOffset + len <= dst.length) {
+                for (int i=0, j=off; i<len; i++, j+=str) {
+                    dst[dstOffset + i] = data[j];
+                }
+                if (lock.validate(stamp))
+                    return;
+            }
+        }
+        readLock();
+        try {
+            if (vector == null)
+                throw new NullPointerException();
+            if (dstOffset < 0 || dstOffset + length > dst.length)
+                throw new IndexOutOfBoundsException();
+            copyInto(dst, dstOffset);
+        } finally {
+            readUnlock();
+        }
+    }
+
+    /**
+     * Overwrites all elements with src[srcOffset ... srcOffset + length), taking the lock once.
+     */
+    public void copyFrom(double[] src, int srcOffset) {
+        if (src == null)
+            throw new IllegalArgumentException("Source is null");
+        writeLock();
+        try {
+            if (vector == null)
+                throw new NullPointerException();
+            if (srcOffset < 0 || srcOffset + length > src.length)
+                throw new IndexOutOfBoundsException();
+            if (stride == 1) {
+                System.arraycopy(src, srcOffset, vector, offset, length);
+            } else {
+                for (int i=0, j=offset; i<length; i++, j+=stride) {
+                    vector[j] = src[srcOffset + i];
+                }
+            }
+        } finally {
+            writeUnlock();
+        }
     }
 
     public void transpose() {
@@ -91,38 +252,44 @@ public class SharedVector {
 
     public void add(SharedVector other) {
         // TODO: add two vectors
-        if (System.identityHashCode(this)<System.identityHashCode(other)){
-            writeLock();
-            other.readLock();
-            try {
-                if (vector == null)
-                    throw new NullPointerException();
-                if (other.length()!= vector.length)
-                    throw new IllegalArgumentException("invalid vector size");
-                for (int i=0; i< vector.length; i++) {
-                    vector[i] = vector[i]+other.get(i);
-                }  
-            } finally {
-                other.readUnlock();
-                writeUnlock();
+        scaledAdd(1.0, other);
+    }
+
+    /**
+     * Adds alpha * other to this vector, element by element.
+     * Both locks are taken once, the loop works on the backing arrays directly.
+     */
+    public void scaledAdd(double alpha, SharedVector other) {
+        if (other == null)
+            throw new IllegalArgumentException("Vector is null");
+        lockForUpdate(other);
+        try {
+            if (vector == null || other.vector == null)
+                throw new NullPointerException();
+            if (other.length != length)
+                throw new IllegalArgumentException("invalid vector size");
+            double[] src = other.vector;
+            if (stride == 1 && other.stride == 1) {
+                if (alpha == 1.0)
+                    ElementKernels.INSTANCE.add(vector, offset, src, other.offset, length);
+                else
+                    ElementKernels.INSTANCE.scaledAdd(vector, offset, alpha, src, other.offset, length);
+                return;
             }
-        } else{
-            other.readLock();
-            writeLock();
-            try {
-                if (vector == null)
-                    throw new NullPointerException();
-                if (other.length()!= vector.length)
-                    throw new IllegalArgumentException("invalid vector size");
-                for (int i=0; i< vector.length; i++) {
-                    vector[i] = vector[i]+other.get(i);
-                }  
-            } finally {
-                writeUnlock();
-                other.readUnlock();
+            int j = other.offset;
+            int srcStride = other.stride;
+            if (alpha == 1.0) {
+                for (int i=0, k=offset; i<length; i++, k+=stride, j+=srcStride) {
+                    vector[k] = vector[k] + src[j];
+                }
+            } else {
+                for (int i=0, k=offset; i<length; i++, k+=stride, j+=srcStride) {
+                    vector[k] = vector[k] + alpha*src[j];
+                }
             }
+        } finally {
+            unlockForUpdate(other);
         }
-        
     }
 
     public void negate() {
@@ -131,86 +298,174 @@ public class SharedVector {
         try {
             if (vector == null)
                 throw new NullPointerException();
-            for (int i=0; i< vector.length; i++) {
-                vector[i] = vector[i]*(-1);
+            if (stride == 1) {
+                ElementKernels.INSTANCE.negate(vector, offset, length);
+                return;
+            }
+            for (int i=0, k=offset; i< length; i++, k+=stride) {
+                vector[k] = -vector[k];
             }
         } finally {
             writeUnlock();
         }
-        
+
     }
 
     public double dot(SharedVector other) {
         // TODO: compute dot product (row · column)
-        if (System.identityHashCode(this)<System.identityHashCode(other)){
-            readLock();
-            other.readLock();
-            try{
-                if (orientation == other.orientation)
-                    throw new IllegalArgumentException("Both vectors with same orientation");
-                if (other.length()!= vector.length)
-                    throw new IllegalArgumentException("invalid vectors size");
-                double sum = 0;
-                for(int i=0; i<vector.length; i++){
-                    sum = sum + (vector[i]*other.get(i));
-                }
-                return sum;
-            } finally {
-                other.readUnlock();
-                readUnlock();
-            }
-        } else {
-            other.readLock();
-            readLock();
-            try{
-                if (orientation == other.orientation)
-                    throw new IllegalArgumentException("Both vectors with same orientation");
-                if (other.length()!= vector.length)
-                    throw new IllegalArgumentException("invalid vectors size");
-                double sum = 0;
-                for(int i=0; i<vector.length; i++){
-                    sum = sum + (vector[i]*other.get(i));
-                }
-                return sum;
-            } finally {
-                readUnlock();
-                other.readUnlock();
+        if (other == null)
+            throw new IllegalArgumentException("Vector is null");
+        if (optimisticReads && other.optimisticReads && other.lock != lock) {
+            long stamp = lock.tryOptimisticRead();
+            long otherStamp = other.lock.tryOptimisticRead();
+            double[] a = vector, b = other.vector;
+            int aOff = offset, aStr = stride, len = length;
+            int bOff = other.offset, bStr = other.stride;
+            if (stamp != 0 && otherStamp != 0 && a != null && b != null
+                    && orientation != other.orientation && len == other.length
+                    && fits(a, aOff, aStr, len) && fits(b, bOff, bStr, len)) {
+                double sum = dotRaw(a, aOff, aStr, b, bOff, bStr, len);
+                if (lock.validate(stamp) && other.lock.validate(otherStamp))
+                    return sum;
             }
         }
+        lockForRead(other);
+        try{
+            if (orientation == other.orientation)
+                throw new IllegalArgumentException("Both vectors with same orientation");
+            if (other.length!= length)
+                throw new IllegalArgumentException("invalid vectors size");
+            return dotRaw(vector, offset, stride, other.vector, other.offset, other.stride, length);
+        } finally {
+            unlockForRead(other);
+        }
     }
 
+    /**
+     * Replaces this row vector with its product by matrix, whose lazy sign is applied.
+     * The result is written into the vector's storage, so a row of a matrix stays part of
+     * it; such a row can only take a result of its own length. A standalone vector gets new
+     * storage when the length changes.
+     */
     public void vecMatMul(SharedMatrix matrix) {
         // TODO: compute row-vector × matrix
         //לבצע איכשהו נעילה על המטריצה כדי שלא תשתנה במהלך הפעולה
+        if (matrix == null || matrix.length() == 0)
+            throw new IllegalArgumentException("invalid sizes");
         writeLock();
+        matrix.readLockAll();
         try {
             if (orientation != VectorOrientation.ROW_MAJOR)
                 throw new IllegalArgumentException("Invalid operation, vector isn't row major");
             double[] temp_vector;
-            if (matrix.getOrientation() == VectorOrientation.ROW_MAJOR) {
-                if (this.length() != matrix.length()) {
+            if (matrix.storedVector(0).orientation() == VectorOrientation.ROW_MAJOR) {
+                if (length != matrix.length()) {
                     throw new IllegalArgumentException("invalid sizes");
                 }
-                temp_vector = new double[matrix.get(0).length()];
-                for(int i=0; i<matrix.get(0).length(); i++){
-                    double[] curr_vector = new double[matrix.length()];
-                    for(int j=0; j<matrix.length(); j++){
-                        curr_vector[j] = matrix.get(j).get(i);
+                // accumulate row j of the matrix scaled by element j, row by row
+                temp_vector = new double[matrix.storedVector(0).size()];
+                for(int j=0; j<matrix.length(); j++){
+                    SharedVector row = matrix.storedVector(j);
+                    double scale = vector[offset + j*stride];
+                    double[] b = row.vector;
+                    for(int i=0, k=row.offset; i<temp_vector.length; i++, k+=row.stride){
+                        temp_vector[i] += scale*b[k];
                     }
-                    temp_vector[i] = dot(new SharedVector(curr_vector, VectorOrientation.COLUMN_MAJOR));
                 }
             }else {
-                if (this.length() != matrix.get(0).length()) {
+                if (length != matrix.storedVector(0).size()) {
                     throw new IllegalArgumentException("invalid sizes");
                 }
                 temp_vector = new double[matrix.length()];
                 for(int i=0; i<matrix.length(); i++){
-                    temp_vector[i]= dot(matrix.get(i));
+                    SharedVector column = matrix.storedVector(i);
+                    temp_vector[i]= dotRaw(vector, offset, stride, column.vector, column.offset, column.stride, length);
+                }
+            }
+            if (matrix.isNegated()) {
+                for (int i=0; i<temp_vector.length; i++) {
+                    temp_vector[i] = -temp_vector[i];
                 }
             }
-            vector = temp_vector;
+            if (temp_vector.length == length) {
+                for (int i=0, k=offset; i<length; i++, k+=stride) {
+                    vector[k] = temp_vector[i];
+                }
+            } else if (matrixView) {
+                throw new IllegalArgumentException("A " + temp_vector.length + " element result doesn't fit this matrix row");
+            } else {
+                vector = temp_vector;
+                offset = 0;
+                stride = 1;
+                length = temp_vector.length;
+            }
         } finally {
+            matrix.readUnlockAll();
             writeUnlock();
         }
     }
+
+    private static double dotRaw(double[] a, int aOff, int aStr, double[] b, int bOff, int bStr, int len) {
+        if (aStr == 1 && bStr == 1)
+            return ElementKernels.INSTANCE.dot(a, aOff, b, bOff, len);
+        double sum = 0;
+        for (int i=0, j=aOff, k=bOff; i<len; i++, j+=aStr, k+=bStr) {
+            sum = sum + a[j]*b[k];
+        }
+        return sum;
+    }
+
+    /**
+     * Checks that a speculatively read slice lies inside its array.
+     */
+    private static boolean fits(double[] data, int off, int str, int len) {
+        return len == 0 || (off >= 0 && str > 0 && off + (long) (len - 1)*str < data.length);
+    }
+
+    /**
+     * Returns true if both vectors are guarded by the same lock, e.g. rows of one matrix stripe.
+     */
+    boolean sharesLockWith(SharedVector other) {
+        return other.lock == lock;
+    }
+
+    /**
+     * Locks this vector for writing and other for reading, in lock order to avoid deadlocks.
+     * Vectors sharing a lock are locked once.
+     */
+    private void lockForUpdate(SharedVector other) {
+        if (sharesLockWith(other)) {
+            writeLock();
+        } else if (lock.before(other.lock)) {
+            writeLock();
+            other.readLock();
+        } else {
+            other.readLock();
+            writeLock();
+        }
+    }
+
+    private void unlockForUpdate(SharedVector other) {
+        writeUnlock();
+        if (!sharesLockWith(other))
+            other.readUnlock();
+    }
+
+    private void lockForRead(SharedVector other) {
+        if (sharesLockWith(other)) {
+            readLock();
+        } else if (lock.before(other.lock)) {
+            readLock();
+            other.readLock();
+        } else {
+            other.readLock();
+            readLock();
+        }
+    }
+
+    private void unlockForRead(SharedVector other) {
+        readUnlock();
+        if (!sharesLockWith(other))
+            other.readUnlock();
+    }
 }
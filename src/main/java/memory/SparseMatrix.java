@@ -0,0 +1,326 @@
+package memory;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * An immutable sparse matrix in compressed sparse row (CSR) form.
+ * The non-zeros of row i are values[rowPtr[i] ... rowPtr[i+1]) in columns
+ * colIdx[rowPtr[i] ... rowPtr[i+1]), sorted by column.
+ * The compressed sparse column (CSC) form of a matrix is the CSR form of its transpose,
+ * see transpose().
+ * Kernels work one row at a time so the engine can split them into tasks; a row of
+ * a product costs O(non-zeros touched) instead of O(shared dimension).
+ */
+public final class SparseMatrix {
+
+    public static final double DENSITY_THRESHOLD = 0.1; // at most this fraction of non-zeros is stored sparse
+    public static final int MIN_SPARSE_SIZE = 64; // smaller matrices are always stored dense
+
+    private final int rows;
+    private final int cols;
+    private final int[] rowPtr;
+    private final int[] colIdx;
+    private final double[] values;
+
+    private SparseMatrix(int rows, int cols, int[] rowPtr, int[] colIdx, double[] values) {
+        this.rows = rows;
+        this.cols = cols;
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.values = values;
+    }
+
+    /**
+     * Decides whether a dense matrix is worth storing sparse.
+     */
+    public static boolean shouldBeSparse(double[][] matrix) {
+        if (matrix == null || matrix.length == 0)
+            return false;
+        long size = (long) matrix.length * matrix[0].length;
+        if (size < MIN_SPARSE_SIZE)
+            return false;
+        long limit = (long) (size * DENSITY_THRESHOLD);
+        long nonZeros = 0;
+        for (double[] row : matrix) {
+            for (double value : row) {
+                if (value != 0 && ++nonZeros > limit)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decides whether a result with the given shape and number of non-zeros should stay sparse.
+     */
+    public static boolean shouldBeSparse(int rows, int cols, long nonZeros) {
+        long size = (long) rows * cols;
+        return size >= MIN_SPARSE_SIZE && nonZeros <= size * DENSITY_THRESHOLD;
+    }
+
+    public static SparseMatrix fromDense(double[][] matrix) {
+        if (matrix == null)
+            throw new IllegalArgumentException("Matrix is null");
+        int width = matrix.length > 0 ? matrix[0].length : 0;
+        int nonZeros = 0;
+        for (double[] row : matrix) {
+            if (row == null || row.length != width)
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix");
+            for (double value : row) {
+                if (value != 0)
+                    nonZeros++;
+            }
+        }
+        int[] rowPtr = new int[matrix.length + 1];
+        int[] colIdx = new int[nonZeros];
+        double[] values = new double[nonZeros];
+        int k = 0;
+        for (int i=0; i<matrix.length; i++) {
+            for (int j=0; j<width; j++) {
+                if (matrix[i][j] != 0) {
+                    colIdx[k] = j;
+                    values[k] = matrix[i][j];
+                    k++;
+                }
+            }
+            rowPtr[i + 1] = k;
+        }
+        return new SparseMatrix(matrix.length, width, rowPtr, colIdx, values);
+    }
+
+    /**
+     * Assembles a matrix from rows computed independently, e.g. by different tasks.
+     * rowCols[i] and rowValues[i] hold the sorted non-zeros of row i.
+     */
+    public static SparseMatrix fromRows(int rows, int cols, int[][] rowCols, double[][] rowValues) {
+        int[] rowPtr = new int[rows + 1];
+        for (int i=0; i<rows; i++) {
+            rowPtr[i + 1] = rowPtr[i] + rowCols[i].length;
+        }
+        int[] colIdx = new int[rowPtr[rows]];
+        double[] values = new double[rowPtr[rows]];
+        for (int i=0; i<rows; i++) {
+            System.arraycopy(rowCols[i], 0, colIdx, rowPtr[i], rowCols[i].length);
+            System.arraycopy(rowValues[i], 0, values, rowPtr[i], rowValues[i].length);
+        }
+        return new SparseMatrix(rows, cols, rowPtr, colIdx, values);
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int nonZeros() {
+        return values.length;
+    }
+
+    public double density() {
+        long size = (long) rows * cols;
+        return size == 0 ? 0 : (double) values.length / size;
+    }
+
+    public double[][] toDense() {
+        double[][] matrix = new double[rows][cols];
+        for (int i=0; i<rows; i++) {
+            for (int k=rowPtr[i]; k<rowPtr[i + 1]; k++) {
+                matrix[i][colIdx[k]] = values[k];
+            }
+        }
+        return matrix;
+    }
+
+    public SparseMatrix negate() {
+        double[] negated = new double[values.length];
+        for (int k=0; k<values.length; k++) {
+            negated[k] = -values[k];
+        }
+        return new SparseMatrix(rows, cols, rowPtr, colIdx, negated);
+    }
+
+    /**
+     * Returns the transpose, which is also the CSC form of this matrix. Runs in O(rows + non-zeros).
+     */
+    public SparseMatrix transpose() {
+        int[] tRowPtr = new int[cols + 1];
+        for (int k=0; k<colIdx.length; k++) {
+            tRowPtr[colIdx[k] + 1]++;
+        }
+        for (int j=0; j<cols; j++) {
+            tRowPtr[j + 1] += tRowPtr[j];
+        }
+        int[] next = Arrays.copyOf(tRowPtr, cols);
+        int[] tColIdx = new int[colIdx.length];
+        double[] tValues = new double[values.length];
+        for (int i=0; i<rows; i++) {
+            for (int k=rowPtr[i]; k<rowPtr[i + 1]; k++) {
+                int dst = next[colIdx[k]]++;
+                tColIdx[dst] = i;
+                tValues[dst] = values[k];
+            }
+        }
+        return new SparseMatrix(cols, rows, tRowPtr, tColIdx, tValues);
+    }
+
+    /**
+     * Adds row i of this matrix into a dense row.
+     */
+    public void addRowTo(int i, double[] out) {
+        for (int k=rowPtr[i]; k<rowPtr[i + 1]; k++) {
+            out[colIdx[k]] += values[k];
+        }
+    }
+
+    /**
+     * Computes row i of this x dense into out.
+     */
+    public void multiplyRow(int i, double[][] dense, double[] out) {
+        Arrays.fill(out, 0);
+        for (int k=rowPtr[i]; k<rowPtr[i + 1]; k++) {
+            double scale = values[k];
+            double[] denseRow = dense[colIdx[k]];
+            for (int j=0; j<out.length; j++) {
+                out[j] += scale * denseRow[j];
+            }
+        }
+    }
+
+    /**
+     * Computes one row of dense x sparse: out = denseRow x sparse.
+     */
+    public static void multiplyRow(double[] denseRow, SparseMatrix sparse, double[] out) {
+        Arrays.fill(out, 0);
+        for (int p=0; p<denseRow.length; p++) {
+            double scale = denseRow[p];
+            if (scale == 0)
+                continue;
+            for (int k=sparse.rowPtr[p]; k<sparse.rowPtr[p + 1]; k++) {
+                out[sparse.colIdx[k]] += scale * sparse.values[k];
+            }
+        }
+    }
+
+    /**
+     * Computes rows [start, end) of left x right (Gustavson's algorithm) into rowCols/rowValues,
+     * in the layout expected by fromRows.
+     */
+    public static void multiplyRows(SparseMatrix left, SparseMatrix right, int start, int end, int[][] rowCols, double[][] rowValues) {
+        double[] accumulator = new double[right.cols];
+        int[] marker = new int[right.cols];
+        Arrays.fill(marker, -1);
+        int[] touched = new int[right.cols];
+        for (int i=start; i<end; i++) {
+            int count = 0;
+            for (int k=left.rowPtr[i]; k<left.rowPtr[i + 1]; k++) {
+                double scale = left.values[k];
+                int p = left.colIdx[k];
+                for (int q=right.rowPtr[p]; q<right.rowPtr[p + 1]; q++) {
+                    int j = right.colIdx[q];
+                    if (marker[j] != i) {
+                        marker[j] = i;
+                        accumulator[j] = 0;
+                        touched[count++] = j;
+                    }
+                    accumulator[j] += scale * right.values[q];
+                }
+            }
+            collectRow(i, touched, count, accumulator, rowCols, rowValues);
+        }
+    }
+
+    /**
+     * Computes rows [start, end) of left + right into rowCols/rowValues, in the layout expected by fromRows.
+     */
+    public static void addRows(SparseMatrix left, SparseMatrix right, int start, int end, int[][] rowCols, double[][] rowValues) {
+        for (int i=start; i<end; i++) {
+            int a = left.rowPtr[i], aEnd = left.rowPtr[i + 1];
+            int b = right.rowPtr[i], bEnd = right.rowPtr[i + 1];
+            int[] cols = new int[(aEnd - a) + (bEnd - b)];
+            double[] vals = new double[cols.length];
+            int count = 0;
+            while (a < aEnd || b < bEnd) {
+                int aCol = a < aEnd ? left.colIdx[a] : Integer.MAX_VALUE;
+                int bCol = b < bEnd ? right.colIdx[b] : Integer.MAX_VALUE;
+                double value;
+                int col;
+                if (aCol == bCol) {
+                    col = aCol;
+                    value = left.values[a++] + right.values[b++];
+                } else if (aCol < bCol) {
+                    col = aCol;
+                    value = left.values[a++];
+                } else {
+                    col = bCol;
+                    value = right.values[b++];
+                }
+                if (value != 0) {
+                    cols[count] = col;
+                    vals[count] = value;
+                    count++;
+                }
+            }
+            rowCols[i] = Arrays.copyOf(cols, count);
+            rowValues[i] = Arrays.copyOf(vals, count);
+        }
+    }
+
+    private static void collectRow(int i, int[] touched, int count, double[] accumulator, int[][] rowCols, double[][] rowValues) {
+        Arrays.sort(touched, 0, count);
+        int nonZeros = 0;
+        for (int t=0; t<count; t++) {
+            if (accumulator[touched[t]] != 0)
+                nonZeros++;
+        }
+        int[] cols = new int[nonZeros];
+        double[] vals = new double[nonZeros];
+        int k = 0;
+        for (int t=0; t<count; t++) {
+            double value = accumulator[touched[t]];
+            if (value != 0) {
+                cols[k] = touched[t];
+                vals[k] = value;
+                k++;
+            }
+        }
+        rowCols[i] = cols;
+        rowValues[i] = vals;
+    }
+
+    /**
+     * Feeds the shape and non-zeros of the matrix to a content digest.
+     */
+    public void updateDigest(MessageDigest digest) {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + Double.BYTES);
+        digest.update(buffer.putInt(rows).putInt(cols).array(), 0, 2 * Integer.BYTES);
+        for (int k=0; k<values.length; k++) {
+            buffer.clear();
+            digest.update(buffer.putInt(colIdx[k]).putDouble(values[k]).array());
+        }
+        for (int ptr : rowPtr) {
+            buffer.clear();
+            digest.update(buffer.putInt(ptr).array(), 0, Integer.BYTES);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof SparseMatrix other))
+            return false;
+        return rows == other.rows && cols == other.cols && Arrays.equals(rowPtr, other.rowPtr)
+                && Arrays.equals(colIdx, other.colIdx) && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 31 * rows + cols;
+        hash = 31 * hash + Arrays.hashCode(colIdx);
+        return 31 * hash + Arrays.hashCode(values);
+    }
+}
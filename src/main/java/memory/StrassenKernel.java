@@ -0,0 +1,263 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Strassen multiplication of square matrices. The operands are padded with zeros to
+ * crossover * 2^d for the smallest d reaching the crossover, and every level splits them
+ * into quadrants combined into 7 half-size products instead of 8. Blocks of at most
+ * crossover rows are multiplied classically.
+ * The first levels are expanded into independent products, one task each, so the tasks
+ * never wait for each other; the products are summed into the result at the end.
+ * Strassen trades accuracy for speed: the error grows faster with the size than the
+ * error of the classical product, see the accuracy check in StrassenKernelTest.
+ */
+public final class StrassenKernel {
+
+    public static final int DEFAULT_CROSSOVER = 128; // largest block multiplied classically
+
+    // quadrants are numbered 0 = (1,1), 1 = (1,2), 2 = (2,1), 3 = (2,2)
+    // product k is (sum of A_TERMS[k]) * (sum of B_TERMS[k]), with signs in the *_SIGNS arrays
+    private static final int[][] A_TERMS = {{0, 3}, {2, 3}, {0}, {3}, {0, 1}, {2, 0}, {1, 3}};
+    private static final int[][] A_SIGNS = {{1, 1}, {1, 1}, {1}, {1}, {1, 1}, {1, -1}, {1, -1}};
+    private static final int[][] B_TERMS = {{0, 3}, {0}, {1, 3}, {2, 0}, {3}, {0, 1}, {2, 3}};
+    private static final int[][] B_SIGNS = {{1, 1}, {1}, {1, -1}, {1, -1}, {1}, {1, 1}, {1, 1}};
+    // product k is added to the quadrants C_TERMS[k] of the result
+    private static final int[][] C_TERMS = {{0, 3}, {2, 3}, {1, 3}, {0, 2}, {0, 1}, {3}, {0}};
+    private static final int[][] C_SIGNS = {{1, 1}, {1, -1}, {1, 1}, {1, 1}, {-1, 1}, {1}, {1}};
+
+    private StrassenKernel() {}
+
+    /**
+     * A square block of a row-major array.
+     */
+    private record Block(double[] data, int offset, int stride, int size) {
+
+        Block quadrant(int q) {
+            int half = size / 2;
+            return new Block(data, offset + (q / 2) * half * stride + (q % 2) * half, stride, half);
+        }
+
+        static Block allocate(int size) {
+            return new Block(new double[size * size], 0, size, size);
+        }
+    }
+
+    /**
+     * One block of the operands or the result at the expanded depth, with its sign.
+     */
+    private record Term(int sign, int row, int col) {}
+
+    /**
+     * The independent products of a multiplication, and how they sum into the result.
+     */
+    public static final class Plan {
+        private final int size; // size of the operands
+        private final int padded; // size after padding
+        private final int levels; // levels expanded into tasks
+        private final Block a;
+        private final Block b;
+        private final List<List<Term>> resultTerms = new ArrayList<>(); // where each product is added
+        private final Block[] products;
+        private final List<Runnable> tasks = new LinkedList<>();
+
+        private Plan(double[][] left, double[][] right, int crossover, int levels) {
+            size = left.length;
+            int depth = 0;
+            while ((size + (1 << depth) - 1) >> depth > crossover) {
+                depth++;
+            }
+            this.levels = Math.min(levels, depth);
+            padded = ((size + (1 << depth) - 1) >> depth) << depth;
+            a = pad(left, padded);
+            b = pad(right, padded);
+            List<List<Term>> aTerms = new ArrayList<>();
+            List<List<Term>> bTerms = new ArrayList<>();
+            expand(List.of(new Term(1, 0, 0)), List.of(new Term(1, 0, 0)), List.of(new Term(1, 0, 0)),
+                    0, aTerms, bTerms);
+            products = new Block[resultTerms.size()];
+            int blockSize = padded >> this.levels;
+            for (int p=0; p<products.length; p++) {
+                final int index = p;
+                final List<Term> aSum = aTerms.get(p);
+                final List<Term> bSum = bTerms.get(p);
+                tasks.add(() -> {
+                    Block product = Block.allocate(blockSize);
+                    multiply(sum(a, aSum, blockSize), sum(b, bSum, blockSize), product, crossover);
+                    products[index] = product;
+                });
+            }
+        }
+
+        /**
+         * Splits a block product into its 7 half-size products, until levels is reached.
+         */
+        private void expand(List<Term> aSum, List<Term> bSum, List<Term> cSum, int level,
+                            List<List<Term>> aTerms, List<List<Term>> bTerms) {
+            if (level == levels) {
+                aTerms.add(aSum);
+                bTerms.add(bSum);
+                resultTerms.add(cSum);
+                return;
+            }
+            for (int k=0; k<7; k++) {
+                expand(split(aSum, A_TERMS[k], A_SIGNS[k]), split(bSum, B_TERMS[k], B_SIGNS[k]),
+                        split(cSum, C_TERMS[k], C_SIGNS[k]), level + 1, aTerms, bTerms);
+            }
+        }
+
+        /**
+         * The tasks computing the products, independent of each other.
+         */
+        public List<Runnable> tasks() {
+            return tasks;
+        }
+
+        public int productCount() {
+            return products.length;
+        }
+
+        /**
+         * Sums the products into the result, once all the tasks finished.
+         */
+        public double[][] result() {
+            Block c = Block.allocate(padded);
+            int blockSize = padded >> levels;
+            for (int p=0; p<products.length; p++) {
+                for (Term term : resultTerms.get(p)) {
+                    Block target = new Block(c.data, term.row * blockSize * padded + term.col * blockSize, padded, blockSize);
+                    addTo(target, term.sign, products[p]);
+                }
+            }
+            double[][] result = new double[size][size];
+            for (int i=0; i<size; i++) {
+                System.arraycopy(c.data, i * padded, result[i], 0, size);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Plans left x right for square operands of the same size.
+     * @param levels how many levels are expanded into independent tasks, 7^levels products
+     */
+    public static Plan plan(double[][] left, double[][] right, int crossover, int levels) {
+        if (crossover < 1 || levels < 0)
+            throw new IllegalArgumentException("Illegal crossover or levels");
+        int size = left.length;
+        if (right.length != size || (size > 0 && (left[0].length != size || right[0].length != size)))
+            throw new IllegalArgumentException("Strassen needs square matrices of the same size");
+        return new Plan(left, right, crossover, levels);
+    }
+
+    /**
+     * Returns the number of levels needed so that some tasks exist for every thread.
+     */
+    public static int levelsFor(int threads) {
+        int levels = 1;
+        for (long products = 7; products < threads; products *= 7) {
+            levels++;
+        }
+        return levels;
+    }
+
+    /**
+     * Computes left x right sequentially.
+     */
+    public static double[][] multiply(double[][] left, double[][] right, int crossover) {
+        Plan plan = plan(left, right, crossover, 0);
+        for (Runnable task : plan.tasks()) {
+            task.run();
+        }
+        return plan.result();
+    }
+
+    private static List<Term> split(List<Term> terms, int[] quadrants, int[] signs) {
+        List<Term> result = new ArrayList<>();
+        for (Term term : terms) {
+            for (int q=0; q<quadrants.length; q++) {
+                result.add(new Term(term.sign * signs[q], 2 * term.row + quadrants[q] / 2, 2 * term.col + quadrants[q] % 2));
+            }
+        }
+        return result;
+    }
+
+    private static Block pad(double[][] matrix, int padded) {
+        Block block = Block.allocate(padded);
+        for (int i=0; i<matrix.length; i++) {
+            System.arraycopy(matrix[i], 0, block.data, i * padded, matrix[i].length);
+        }
+        return block;
+    }
+
+    /**
+     * Returns the signed sum of blocks of matrix.
+     */
+    private static Block sum(Block matrix, List<Term> terms, int blockSize) {
+        Block result = Block.allocate(blockSize);
+        for (Term term : terms) {
+            addTo(result, term.sign, new Block(matrix.data, term.row * blockSize * matrix.stride + term.col * blockSize, matrix.stride, blockSize));
+        }
+        return result;
+    }
+
+    /**
+     * target += sign * source
+     */
+    private static void addTo(Block target, double sign, Block source) {
+        for (int i=0; i<target.size; i++) {
+            ElementKernels.INSTANCE.scaledAdd(target.data, target.offset + i * target.stride,
+                    sign, source.data, source.offset + i * source.stride, target.size);
+        }
+    }
+
+    /**
+     * c = a x b, recursing while the blocks are larger than crossover.
+     */
+    private static void multiply(Block a, Block b, Block c, int crossover) {
+        if (c.size <= crossover || c.size % 2 != 0) {
+            multiplyClassic(a, b, c);
+            return;
+        }
+        int half = c.size / 2;
+        Block left = Block.allocate(half);
+        Block right = Block.allocate(half);
+        Block product = Block.allocate(half);
+        for (int i=0; i<c.size; i++) {
+            Arrays.fill(c.data, c.offset + i * c.stride, c.offset + i * c.stride + c.size, 0);
+        }
+        for (int k=0; k<7; k++) {
+            Arrays.fill(left.data, 0);
+            Arrays.fill(right.data, 0);
+            for (int t=0; t<A_TERMS[k].length; t++) {
+                addTo(left, A_SIGNS[k][t], a.quadrant(A_TERMS[k][t]));
+            }
+            for (int t=0; t<B_TERMS[k].length; t++) {
+                addTo(right, B_SIGNS[k][t], b.quadrant(B_TERMS[k][t]));
+            }
+            multiply(left, right, product, crossover);
+            for (int t=0; t<C_TERMS[k].length; t++) {
+                addTo(c.quadrant(C_TERMS[k][t]), C_SIGNS[k][t], product);
+            }
+        }
+    }
+
+    /**
+     * c = a x b, row by row: each row of c accumulates the rows of b scaled by a row of a.
+     */
+    private static void multiplyClassic(Block a, Block b, Block c) {
+        int n = c.size;
+        for (int i=0; i<n; i++) {
+            int row = c.offset + i * c.stride;
+            Arrays.fill(c.data, row, row + n, 0);
+            for (int k=0; k<n; k++) {
+                double value = a.data[a.offset + i * a.stride + k];
+                if (value != 0)
+                    ElementKernels.INSTANCE.scaledAdd(c.data, row, value, b.data, b.offset + k * b.stride, n);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package memory;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernels on the preferred DoubleVector species (4 lanes on AVX2, 8 on AVX-512).
+ * Only instantiated through ElementKernels when jdk.incubator.vector is present.
+ * Multiply-adds round twice, like ScalarKernels, so scaledAdd agrees bit for bit with the tail loop.
+ */
+class VectorApiKernels extends ScalarKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void add(double[] dst, int dstOff, double[] src, int srcOff, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i<bound; i+=SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, dst, dstOff + i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, src, srcOff + i);
+            a.add(b).intoArray(dst, dstOff + i);
+        }
+        for (; i<length; i++) {
+            dst[dstOff + i] += src[srcOff + i];
+        }
+    }
+
+    @Override
+    public void scaledAdd(double[] dst, int dstOff, double alpha, double[] src, int srcOff, int length) {
+        DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i<bound; i+=SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, dst, dstOff + i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, src, srcOff + i);
+            a.add(b.mul(scale)).intoArray(dst, dstOff + i);
+        }
+        for (; i<length; i++) {
+            dst[dstOff + i] += alpha * src[srcOff + i];
+        }
+    }
+
+    @Override
+    public void negate(double[] dst, int dstOff, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i<bound; i+=SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, dst, dstOff + i).neg().intoArray(dst, dstOff + i);
+        }
+        for (; i<length; i++) {
+            dst[dstOff + i] = -dst[dstOff + i];
+        }
+    }
+
+    @Override
+    public double dot(double[] a, int aOff, double[] b, int bOff, int length) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i<bound; i+=SPECIES.length()) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, aOff + i);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, b, bOff + i);
+            sum = sum.add(x.mul(y));
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i<length; i++) {
+            result += a[aOff + i] * b[bOff + i];
+        }
+        return result;
+    }
+
+    @Override
+    public String name() {
+        return "simd-" + SPECIES.length() + "x" + Double.SIZE;
+    }
+}
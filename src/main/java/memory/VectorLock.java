@@ -0,0 +1,62 @@
+package memory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The lock of a SharedVector, possibly shared by all the vectors of a matrix stripe.
+ * It is reentrant like the ReentrantReadWriteLock it wraps: a thread holding it may lock it
+ * again, also through another vector of the same stripe, and may read under its write lock.
+ * A thread holding only the read lock can't take the write lock, it would wait for itself,
+ * so writeLock throws instead.
+ * The outermost write lock also holds a StampedLock, so optimistic readers validating a
+ * stamp of it see every write.
+ * When two locks are taken together they are ordered by order, unique per lock.
+ */
+final class VectorLock {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong(0);
+
+    final long order = SEQUENCE.getAndIncrement();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final StampedLock stampedLock = new StampedLock();
+    private long writeStamp; // stamp of the outermost write lock, guarded by it
+
+    void readLock() {
+        lock.readLock().lock();
+    }
+
+    void readUnlock() {
+        lock.readLock().unlock();
+    }
+
+    void writeLock() {
+        if (lock.getReadHoldCount() > 0 && !lock.isWriteLockedByCurrentThread())
+            throw new IllegalStateException("Can't write lock a stripe this thread holds the read lock of");
+        lock.writeLock().lock();
+        if (lock.getWriteHoldCount() == 1)
+            writeStamp = stampedLock.writeLock();
+    }
+
+    void writeUnlock() {
+        if (lock.getWriteHoldCount() == 1)
+            stampedLock.unlockWrite(writeStamp);
+        lock.writeLock().unlock();
+    }
+
+    long tryOptimisticRead() {
+        return stampedLock.tryOptimisticRead();
+    }
+
+    boolean validate(long stamp) {
+        return stampedLock.validate(stamp);
+    }
+
+    /**
+     * Returns true if this lock must be taken before other when both are needed.
+     */
+    boolean before(VectorLock other) {
+        return order < other.order;
+    }
+}
@@ -0,0 +1,182 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rule-based rewriter simplifying computation trees before evaluation.
+ * Rules:
+ *  --A -> A and (A^T)^T -> A
+ *  -A * -B -> A * B (pairs of negated factors cancel)
+ *  -A + -B + ... -> -(A + B + ...)
+ *  A^T * B^T -> (B * A)^T and (A * B)^T -> B^T * A^T when a factor is transposed
+ * NEGATE and TRANSPOSE are free views in the engine, so every rule leaves the elements the
+ * engine materializes unchanged: the same sums and products, of the same sizes. The one
+ * place a transposed view is copied is an addend of a sum laid out unlike the first operand,
+ * so the rules that change whether a result is transposed are skipped inside sums.
+ * Every rule removes nodes, so the rewriting always terminates. Nodes are rewritten in
+ * place, the root keeps its identity.
+ */
+public class AlgebraicRewriter {
+
+    private long rewrites = 0;
+    private long nodesRemoved = 0;
+
+    public void rewrite(ComputationNode root) {
+        if (root == null)
+            throw new IllegalArgumentException("The root is null");
+        visit(root, false);
+    }
+
+    public long getRewrites() {
+        return rewrites;
+    }
+
+    public String getReport() {
+        return "--- Algebraic Rewrites ---\n" +
+                "Rewrites: " + rewrites + ", Nodes removed: " + nodesRemoved + "\n";
+    }
+
+    /**
+     * @param inSum the node is an addend of a sum, maybe under NEGATE and TRANSPOSE nodes
+     */
+    private void visit(ComputationNode node, boolean inSum) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX)
+            return;
+        visitChildren(node, inSum);
+        while (applyRule(node, inSum)) {
+            rewrites++;
+            if (node.getNodeType() == ComputationNodeType.MATRIX)
+                return;
+            visitChildren(node, inSum);
+        }
+    }
+
+    private void visitChildren(ComputationNode node, boolean inSum) {
+        ComputationNodeType nodeType = node.getNodeType();
+        boolean lazy = nodeType == ComputationNodeType.NEGATE || nodeType == ComputationNodeType.TRANSPOSE;
+        for (ComputationNode child : node.getChildren()) {
+            visit(child, nodeType == ComputationNodeType.ADD || lazy && inSum);
+        }
+    }
+
+    /**
+     * Applies the first rule that fits the node, returns false if there is none.
+     */
+    private boolean applyRule(ComputationNode node, boolean inSum) {
+        List<ComputationNode> children = node.getChildren();
+        switch (node.getNodeType()) {
+            case NEGATE:
+            case TRANSPOSE:
+                if (children.size() != 1)
+                    return false;
+                ComputationNode child = children.getFirst();
+                if (child.getNodeType() == node.getNodeType() && child.getChildren().size() == 1) {
+                    nodesRemoved += 2;
+                    node.replaceWith(child.getChildren().getFirst());
+                    return true;
+                }
+                if (!inSum && node.getNodeType() == ComputationNodeType.TRANSPOSE && isBinary(child, ComputationNodeType.MULTIPLY))
+                    return transposeProduct(node, child);
+                return false;
+            case ADD:
+                return pullNegationOutOfSum(node);
+            case MULTIPLY:
+                return cancelNegatedFactors(node) || !inSum && transposeOfFactors(node);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * -A + -B + ... -> -(A + B + ...): one negation of the sum instead of one per operand.
+     */
+    private boolean pullNegationOutOfSum(ComputationNode node) {
+        List<ComputationNode> children = node.getChildren();
+        if (children.size() < 2)
+            return false;
+        List<ComputationNode> operands = new ArrayList<>();
+        for (ComputationNode child : children) {
+            if (!isUnary(child, ComputationNodeType.NEGATE))
+                return false;
+            operands.add(child.getChildren().getFirst());
+        }
+        nodesRemoved += children.size() - 1;
+        ComputationNode sum = new ComputationNode(ComputationNodeType.ADD, operands);
+        node.replaceWith(new ComputationNode(ComputationNodeType.NEGATE, new ArrayList<>(List.of(sum))));
+        return true;
+    }
+
+    /**
+     * -A * -B -> A * B: negated factors cancel in pairs, at most one negation is left.
+     */
+    private boolean cancelNegatedFactors(ComputationNode node) {
+        List<ComputationNode> children = node.getChildren();
+        int negated = 0;
+        for (ComputationNode child : children) {
+            if (isUnary(child, ComputationNodeType.NEGATE))
+                negated++;
+        }
+        if (negated < 2)
+            return false;
+        int toCancel = negated - negated % 2;
+        List<ComputationNode> factors = new ArrayList<>();
+        for (ComputationNode child : children) {
+            if (toCancel > 0 && isUnary(child, ComputationNodeType.NEGATE)) {
+                toCancel--;
+                nodesRemoved++;
+                factors.add(child.getChildren().getFirst());
+            } else {
+                factors.add(child);
+            }
+        }
+        node.setChildren(factors);
+        return true;
+    }
+
+    /**
+     * A^T * B^T -> (B * A)^T: one transposed view instead of two.
+     */
+    private boolean transposeOfFactors(ComputationNode node) {
+        if (node.getChildren().size() != 2)
+            return false;
+        ComputationNode left = node.getChildren().getFirst();
+        ComputationNode right = node.getChildren().getLast();
+        if (!isUnary(left, ComputationNodeType.TRANSPOSE) || !isUnary(right, ComputationNodeType.TRANSPOSE))
+            return false;
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, new ArrayList<>(List.of(
+                right.getChildren().getFirst(), left.getChildren().getFirst())));
+        nodesRemoved++;
+        node.replaceWith(new ComputationNode(ComputationNodeType.TRANSPOSE, new ArrayList<>(List.of(product))));
+        return true;
+    }
+
+    /**
+     * (A * B)^T -> B^T * A^T when a factor is transposed already, so its transposes cancel.
+     */
+    private boolean transposeProduct(ComputationNode node, ComputationNode product) {
+        ComputationNode left = product.getChildren().getFirst();
+        ComputationNode right = product.getChildren().getLast();
+        int transposed = (isUnary(left, ComputationNodeType.TRANSPOSE) ? 1 : 0) + (isUnary(right, ComputationNodeType.TRANSPOSE) ? 1 : 0);
+        if (transposed == 0)
+            return false;
+        nodesRemoved += 2 * transposed - 1;
+        node.replaceWith(new ComputationNode(ComputationNodeType.MULTIPLY, new ArrayList<>(List.of(
+                transposed(right), transposed(left)))));
+        return true;
+    }
+
+    private static ComputationNode transposed(ComputationNode node) {
+        if (isUnary(node, ComputationNodeType.TRANSPOSE))
+            return node.getChildren().getFirst();
+        return new ComputationNode(ComputationNodeType.TRANSPOSE, new ArrayList<>(List.of(node)));
+    }
+
+    private static boolean isUnary(ComputationNode node, ComputationNodeType nodeType) {
+        return node.getNodeType() == nodeType && node.getChildren().size() == 1;
+    }
+
+    private static boolean isBinary(ComputationNode node, ComputationNodeType nodeType) {
+        return node.getNodeType() == nodeType && node.getChildren().size() == 2;
+    }
+}
@@ -0,0 +1,124 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a computation tree into a DAG in which every distinct subexpression appears once.
+ * Subtrees are hashed bottom-up from their operator and the contents of their leaves;
+ * equal hashes are confirmed by comparing leaf contents, and operation nodes are equal
+ * when they have the same operator and the same (already shared) children.
+ * Duplicates are replaced by the first occurrence, so the engine computes it once and
+ * every consumer reads the same result.
+ */
+public class CommonSubexpressionEliminator {
+
+    private long eliminated = 0; // duplicate nodes replaced
+
+    /**
+     * Key of a subtree in the table of unique nodes.
+     */
+    private static final class Key {
+        final ComputationNode node;
+        final int hash;
+
+        Key(ComputationNode node, int hash) {
+            this.node = node;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && hash == other.hash && sameSubtree(node, other.node);
+        }
+    }
+
+    public void eliminate(ComputationNode root) {
+        if (root == null)
+            throw new IllegalArgumentException("The root is null");
+        visit(root, new HashMap<>(), new IdentityHashMap<>());
+    }
+
+    public long getEliminated() {
+        return eliminated;
+    }
+
+    public String getReport() {
+        return "--- Common Subexpressions ---\n" +
+                "Shared nodes eliminated: " + eliminated + "\n";
+    }
+
+    /**
+     * Returns the unique node equal to node, after making its children unique.
+     */
+    private ComputationNode visit(ComputationNode node, Map<Key, ComputationNode> unique, Map<ComputationNode, ComputationNode> visited) {
+        ComputationNode known = visited.get(node);
+        if (known != null)
+            return known;
+        int hash;
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            hash = contentHash(node);
+        } else {
+            List<ComputationNode> children = new ArrayList<>();
+            hash = node.getNodeType().hashCode();
+            for (ComputationNode child : node.getChildren()) {
+                ComputationNode shared = visit(child, unique, visited);
+                children.add(shared);
+                hash = 31 * hash + System.identityHashCode(shared);
+            }
+            node.setChildren(children);
+        }
+        ComputationNode canonical = unique.putIfAbsent(new Key(node, hash), node);
+        if (canonical == null) {
+            canonical = node;
+        } else {
+            eliminated++;
+        }
+        visited.put(node, canonical);
+        return canonical;
+    }
+
+    private static int contentHash(ComputationNode node) {
+        if (node.isSparse())
+            return node.getSparseMatrix().hashCode();
+        if (node.isFloat())
+            return node.getFloatMatrix().hashCode();
+        if (node.isOffHeap())
+            return System.identityHashCode(node.getOffHeapMatrix());
+        return Arrays.deepHashCode(node.getMatrix());
+    }
+
+    private static boolean sameSubtree(ComputationNode a, ComputationNode b) {
+        if (a == b)
+            return true;
+        if (a.getNodeType() != b.getNodeType())
+            return false;
+        if (a.getNodeType() != ComputationNodeType.MATRIX) {
+            List<ComputationNode> left = a.getChildren();
+            List<ComputationNode> right = b.getChildren();
+            if (left.size() != right.size())
+                return false;
+            for (int i=0; i<left.size(); i++) {
+                if (left.get(i) != right.get(i))
+                    return false;
+            }
+            return true;
+        }
+        if (a.isSparse() || b.isSparse())
+            return a.isSparse() && b.isSparse() && a.getSparseMatrix().equals(b.getSparseMatrix());
+        if (a.isFloat() || b.isFloat())
+            return a.isFloat() && b.isFloat() && a.getFloatMatrix().equals(b.getFloatMatrix());
+        if (a.isOffHeap() || b.isOffHeap())
+            return false; // compared by identity only
+        return Arrays.deepEquals(a.getMatrix(), b.getMatrix());
+    }
+}
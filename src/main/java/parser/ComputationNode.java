@@ -2,11 +2,20 @@ package parser;
 
 import java.util.List;
 
+import memory.FloatMatrix;
+import memory.OffHeapMatrix;
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+
 public class ComputationNode {
 
     private ComputationNodeType nodeType;
     private List<ComputationNode> children = null;
     private double[][] matrix = null; // only used for MATRIX nodes
+    private OffHeapMatrix offHeapMatrix = null; // MATRIX nodes resolved into off-heap storage
+    private SparseMatrix sparseMatrix = null; // MATRIX nodes stored in sparse form
+    private FloatMatrix floatMatrix = null; // MATRIX nodes stored in single precision
+    private SharedMatrix sharedMatrix = null; // MATRIX nodes computed by the engine, kept in its own storage
 
     public ComputationNode(String operatorStr, List<ComputationNode> children) throws IllegalArgumentException {
         this.nodeType = mapOperator(operatorStr);
@@ -38,6 +47,16 @@ public class ComputationNode {
         this.matrix = matrix;
     }
 
+    public ComputationNode(SparseMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.sparseMatrix = matrix;
+    }
+
+    public ComputationNode(FloatMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.floatMatrix = matrix;
+    }
+
     public ComputationNodeType getNodeType() {
         return nodeType;
     }
@@ -46,6 +65,63 @@ public class ComputationNode {
         return children;
     }
 
+    /**
+     * Replaces the operands of this operation node, used by the tree optimizers.
+     */
+    void setChildren(List<ComputationNode> children) {
+        if (nodeType == ComputationNodeType.MATRIX)
+            throw new IllegalStateException("A matrix has no children");
+        this.children = children;
+    }
+
+    /**
+     * Turns this node into a copy of other, keeping its identity for the nodes and callers
+     * referring to it. Used by the tree optimizers.
+     */
+    void replaceWith(ComputationNode other) {
+        this.nodeType = other.nodeType;
+        this.children = other.children;
+        this.matrix = other.matrix;
+        this.offHeapMatrix = other.offHeapMatrix;
+        this.sparseMatrix = other.sparseMatrix;
+        this.floatMatrix = other.floatMatrix;
+        this.sharedMatrix = other.sharedMatrix;
+    }
+
+    /**
+     * Returns the number of rows of a MATRIX node without converting its storage.
+     */
+    public int getRowCount() {
+        if (sharedMatrix != null)
+            return sharedMatrix.rowCount();
+        if (offHeapMatrix != null)
+            return offHeapMatrix.rows();
+        if (sparseMatrix != null)
+            return sparseMatrix.rows();
+        if (floatMatrix != null)
+            return floatMatrix.rows();
+        if (matrix == null)
+            throw new IllegalStateException("This node does not contain a matrix.");
+        return matrix.length;
+    }
+
+    /**
+     * Returns the number of columns of a MATRIX node without converting its storage.
+     */
+    public int getColumnCount() {
+        if (sharedMatrix != null)
+            return sharedMatrix.columnCount();
+        if (offHeapMatrix != null)
+            return offHeapMatrix.cols();
+        if (sparseMatrix != null)
+            return sparseMatrix.cols();
+        if (floatMatrix != null)
+            return floatMatrix.cols();
+        if (matrix == null)
+            throw new IllegalStateException("This node does not contain a matrix.");
+        return matrix.length > 0 ? matrix[0].length : 0;
+    }
+
     /**
      * Recursively finds the first resolvable node in the tree.
      * A resolvable node is defined as a node that is not of type MATRIX,
@@ -88,9 +164,116 @@ public class ComputationNode {
         this.nodeType = ComputationNodeType.MATRIX;
         this.children = null;
         this.matrix = matrix;
+        this.offHeapMatrix = null;
+        this.sparseMatrix = null;
+        this.floatMatrix = null;
+        this.sharedMatrix = null;
+    }
+
+    /**
+     * Resolves this node into a matrix kept off the Java heap.
+     * The caller owns the storage and must release it once the node is consumed.
+     */
+    public void resolve(OffHeapMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.offHeapMatrix = matrix;
+        this.sparseMatrix = null;
+        this.floatMatrix = null;
+        this.sharedMatrix = null;
+    }
+
+    /**
+     * Resolves this node into a sparse matrix.
+     */
+    public void resolve(SparseMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.offHeapMatrix = null;
+        this.sparseMatrix = matrix;
+        this.floatMatrix = null;
+        this.sharedMatrix = null;
+    }
+
+    /**
+     * Resolves this node into a single-precision matrix.
+     */
+    public void resolve(FloatMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.offHeapMatrix = null;
+        this.sparseMatrix = null;
+        this.floatMatrix = matrix;
+        this.sharedMatrix = null;
+    }
+
+    /**
+     * Resolves this node into a matrix in the engine's storage, so parent operations read it
+     * without a copy. It may be a negated or transposed view; getMatrix() applies them.
+     * The caller owns the storage and must release it once the node is consumed.
+     */
+    public void resolve(SharedMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.offHeapMatrix = null;
+        this.sparseMatrix = null;
+        this.floatMatrix = null;
+        this.sharedMatrix = matrix;
+    }
+
+    public boolean isShared() {
+        return sharedMatrix != null;
+    }
+
+    public SharedMatrix getSharedMatrix() {
+        return sharedMatrix;
     }
 
+    public boolean isSparse() {
+        return sparseMatrix != null;
+    }
+
+    public SparseMatrix getSparseMatrix() {
+        return sparseMatrix;
+    }
+
+    public boolean isFloat() {
+        return floatMatrix != null;
+    }
+
+    public FloatMatrix getFloatMatrix() {
+        return floatMatrix;
+    }
+
+    public boolean isOffHeap() {
+        return offHeapMatrix != null;
+    }
+
+    public OffHeapMatrix getOffHeapMatrix() {
+        return offHeapMatrix;
+    }
+
+    /**
+     * Returns the matrix of this node in dense form.
+     * Off-heap, sparse, single-precision and engine matrices are converted on every call.
+     */
     public double[][] getMatrix() {
+        if (sharedMatrix != null) {
+            return sharedMatrix.readRowMajor();
+        }
+        if (offHeapMatrix != null) {
+            return offHeapMatrix.toArray();
+        }
+        if (sparseMatrix != null) {
+            return sparseMatrix.toDense();
+        }
+        if (floatMatrix != null) {
+            return floatMatrix.toDouble();
+        }
         if (matrix == null) {
             throw new IllegalStateException("This node does not contain a matrix.");
         }
@@ -4,6 +4,10 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
+import memory.FloatMatrix;
+import memory.Precision;
+import memory.SparseMatrix;
+
 import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
@@ -12,6 +16,17 @@ import java.util.*;
 public class InputParser {
 
     private final ObjectMapper mapper = new ObjectMapper();
+    private final Precision precision; // storage precision of the parsed dense matrices
+
+    public InputParser() {
+        this(Precision.DOUBLE);
+    }
+
+    public InputParser(Precision precision) {
+        if (precision == null)
+            throw new IllegalArgumentException("Precision is null");
+        this.precision = precision;
+    }
 
     public ComputationNode parse(String inputPath) throws ParseException {
         try {
@@ -59,6 +74,13 @@ public class InputParser {
                         matrix[i][j] = rowJsonNode.get(j).asDouble();
                     }
                 }
+                // mostly-zero matrices are kept in sparse form
+                if (SparseMatrix.shouldBeSparse(matrix)) {
+                    return new ComputationNode(SparseMatrix.fromDense(matrix));
+                }
+                if (precision == Precision.FLOAT) {
+                    return new ComputationNode(FloatMatrix.fromDouble(matrix));
+                }
                 return new ComputationNode(matrix);
             }
         }
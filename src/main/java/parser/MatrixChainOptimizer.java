@@ -0,0 +1,144 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses the cheapest parenthesization of every n-ary MULTIPLY node before evaluation.
+ * Operand shapes are read from the leaves and propagated through the tree; each chain of
+ * n operands is then ordered with the classic O(n^3) dynamic program and rebuilt as
+ * binary MULTIPLY nodes. The estimated flops (2 * m * k * n per product) of the chosen
+ * plans and of the left-deep plans they replace are accumulated for the report.
+ * Chains with unknown or mismatched shapes are left alone, so the engine reports the error.
+ * Costs saturate at Long.MAX_VALUE instead of overflowing, so huge chains still compare.
+ */
+public class MatrixChainOptimizer {
+
+    private long chains = 0; // n-ary products reordered
+    private long chosenFlops = 0;
+    private long leftDeepFlops = 0;
+
+    /**
+     * Optimizes the tree in place.
+     */
+    public void optimize(ComputationNode root) {
+        if (root == null)
+            throw new IllegalArgumentException("The root is null");
+        shapeOf(root);
+    }
+
+    public long getChosenFlops() {
+        return chosenFlops;
+    }
+
+    public long getLeftDeepFlops() {
+        return leftDeepFlops;
+    }
+
+    public String getReport() {
+        return "--- Matrix Chain Ordering ---\n" +
+                "Chains: " + chains + ", Estimated flops: " + chosenFlops +
+                ", Left-deep flops: " + leftDeepFlops + "\n";
+    }
+
+    /**
+     * Optimizes the subtree and returns its shape as {rows, cols}, or null if it can't be inferred.
+     */
+    private int[] shapeOf(ComputationNode node) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX)
+            return new int[]{node.getRowCount(), node.getColumnCount()};
+        List<int[]> shapes = new ArrayList<>();
+        for (ComputationNode child : node.getChildren()) {
+            shapes.add(shapeOf(child));
+        }
+        if (shapes.isEmpty() || shapes.contains(null))
+            return null;
+        switch (node.getNodeType()) {
+            case ADD:
+                for (int[] shape : shapes) {
+                    if (shape[0] != shapes.getFirst()[0] || shape[1] != shapes.getFirst()[1])
+                        return null;
+                }
+                return shapes.getFirst();
+            case NEGATE:
+                return shapes.getFirst();
+            case TRANSPOSE:
+                return new int[]{shapes.getFirst()[1], shapes.getFirst()[0]};
+            default:
+                for (int i=1; i<shapes.size(); i++) {
+                    if (shapes.get(i - 1)[1] != shapes.get(i)[0])
+                        return null;
+                }
+                if (shapes.size() > 2)
+                    reorder(node, shapes);
+                return new int[]{shapes.getFirst()[0], shapes.getLast()[1]};
+        }
+    }
+
+    /**
+     * Rebuilds an n-ary product as the binary tree of minimal cost.
+     * dims[i] x dims[i + 1] is the shape of operand i.
+     */
+    private void reorder(ComputationNode node, List<int[]> shapes) {
+        int n = shapes.size();
+        long[] dims = new long[n + 1];
+        for (int i=0; i<n; i++) {
+            dims[i] = shapes.get(i)[0];
+        }
+        dims[n] = shapes.getLast()[1];
+        // cost[i][j] is the cheapest cost of operands i..j, split[i][j] where its last product splits them
+        long[][] cost = new long[n][n];
+        int[][] split = new int[n][n];
+        for (int length=2; length<=n; length++) {
+            for (int i=0; i+length-1<n; i++) {
+                int j = i + length - 1;
+                cost[i][j] = Long.MAX_VALUE;
+                split[i][j] = i;
+                for (int k=i; k<j; k++) {
+                    long candidate = plus(plus(cost[i][k], cost[k + 1][j]), flops(dims[i], dims[k + 1], dims[j + 1]));
+                    if (candidate < cost[i][j]) {
+                        cost[i][j] = candidate;
+                        split[i][j] = k;
+                    }
+                }
+            }
+        }
+        long leftDeep = 0;
+        for (int i=1; i<n; i++) {
+            leftDeep = plus(leftDeep, flops(dims[0], dims[i], dims[i + 1]));
+        }
+        chains++;
+        chosenFlops = plus(chosenFlops, cost[0][n - 1]);
+        leftDeepFlops = plus(leftDeepFlops, leftDeep);
+        List<ComputationNode> operands = node.getChildren();
+        int k = split[0][n - 1];
+        node.setChildren(new ArrayList<>(List.of(build(operands, split, 0, k), build(operands, split, k + 1, n - 1))));
+    }
+
+    /**
+     * 2 * m * k * n, the flops of a m x k by k x n product, or Long.MAX_VALUE if it overflows.
+     */
+    private static long flops(long m, long k, long n) {
+        try {
+            return Math.multiplyExact(Math.multiplyExact(Math.multiplyExact(2, m), k), n);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static long plus(long a, long b) {
+        try {
+            return Math.addExact(a, b);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private ComputationNode build(List<ComputationNode> operands, int[][] split, int i, int j) {
+        if (i == j)
+            return operands.get(i);
+        int k = split[i][j];
+        List<ComputationNode> children = new ArrayList<>(List.of(build(operands, split, i, k), build(operands, split, k + 1, j)));
+        return new ComputationNode(ComputationNodeType.MULTIPLY, children);
+    }
+}
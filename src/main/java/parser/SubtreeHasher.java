@@ -0,0 +1,86 @@
+package parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Computes a SHA-256 content hash of every subtree, covering the operators, the tree shape
+ * and the contents of the leaves. Equal hashes identify equal results, across processes,
+ * so they can key a persistent result cache. Sparse and single-precision leaves are hashed
+ * in their own form, so they never share a hash with a dense matrix.
+ */
+public class SubtreeHasher {
+
+    private final String salt; // mixed into every hash, e.g. the precision the results are computed in
+
+    public SubtreeHasher(String salt) {
+        this.salt = salt == null ? "" : salt;
+    }
+
+    /**
+     * Returns the hash of every operation node of the tree. Shared nodes are hashed once.
+     */
+    public Map<ComputationNode, String> hashAll(ComputationNode root) {
+        if (root == null)
+            throw new IllegalArgumentException("The root is null");
+        Map<ComputationNode, String> hashes = new IdentityHashMap<>();
+        hash(root, hashes);
+        hashes.keySet().removeIf(node -> node.getNodeType() == ComputationNodeType.MATRIX);
+        return hashes;
+    }
+
+    private String hash(ComputationNode node, Map<ComputationNode, String> hashes) {
+        String known = hashes.get(node);
+        if (known != null)
+            return known;
+        MessageDigest digest = newDigest();
+        digest.update(salt.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) node.getNodeType().ordinal());
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            digestLeaf(node, digest);
+        } else {
+            for (ComputationNode child : node.getChildren()) {
+                digest.update(hash(child, hashes).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        String hash = HexFormat.of().formatHex(digest.digest());
+        hashes.put(node, hash);
+        return hash;
+    }
+
+    private static void digestLeaf(ComputationNode node, MessageDigest digest) {
+        if (node.isSparse()) {
+            digest.update((byte) 'S');
+            node.getSparseMatrix().updateDigest(digest);
+            return;
+        }
+        if (node.isFloat()) {
+            digest.update((byte) 'F');
+            node.getFloatMatrix().updateDigest(digest);
+            return;
+        }
+        double[][] matrix = node.getMatrix();
+        int cols = matrix.length > 0 ? matrix[0].length : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(2 * Integer.BYTES, cols * Double.BYTES));
+        digest.update((byte) 'D');
+        digest.update(buffer.putInt(matrix.length).putInt(cols).array(), 0, 2 * Integer.BYTES);
+        for (double[] row : matrix) {
+            buffer.clear();
+            buffer.asDoubleBuffer().put(row);
+            digest.update(buffer.array(), 0, row.length * Double.BYTES);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
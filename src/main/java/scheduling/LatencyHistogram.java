@@ -0,0 +1,68 @@
+package scheduling;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Values are counted in buckets of
+ * 1/8 of a power of two, so a percentile is exact to within 12.5%.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8; // buckets per power of two
+    private final AtomicLongArray counts = new AtomicLongArray(bucketOf(Long.MAX_VALUE) + 1);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+    }
+
+    public long count() {
+        long total = 0;
+        for (int b=0; b<counts.length(); b++) {
+            total += counts.get(b);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the latency that fraction of the recorded values don't exceed, as the upper
+     * bound of its bucket, or 0 if nothing was recorded.
+     */
+    public long percentile(double fraction) {
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("Illegal fraction");
+        long total = count();
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int b=0; b<counts.length(); b++) {
+            seen += counts.get(b);
+            if (seen >= rank)
+                return upperBound(b);
+        }
+        return upperBound(counts.length() - 1);
+    }
+
+    /**
+     * Returns "p50 .., p90 .., p99 .." in nanoseconds.
+     */
+    public String summary() {
+        return "p50 " + percentile(0.5) + ", p90 " + percentile(0.9) + ", p99 " + percentile(0.99) + " ns";
+    }
+
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // at least 4
+        int sub = (int) ((value >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+        return (exponent - 2) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + 2;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+        return lower + (1L << (exponent - 3)) - 1;
+    }
+}
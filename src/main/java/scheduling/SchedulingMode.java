@@ -0,0 +1,18 @@
+package scheduling;
+
+/**
+ * How a TiredExecutor hands tasks to its workers.
+ */
+public enum SchedulingMode {
+    /** Every task waits for an idle worker and is handed over through its single slot. */
+    HANDOFF,
+    /** Tasks are queued on per-worker deques without waiting, idle workers steal queued tasks. */
+    WORK_STEALING,
+    /**
+     * Tasks are handed over as in HANDOFF, but submit returns at once: a virtual thread
+     * hands the submitted tasks over in order, waiting for idle workers instead of the
+     * caller. submitAll waits in the caller, which costs little when the caller is itself
+     * a virtual thread.
+     */
+    VIRTUAL_THREADS
+}
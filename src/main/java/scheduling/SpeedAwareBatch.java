@@ -0,0 +1,150 @@
+package scheduling;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Units [0, units) of a divisible job, claimed in chunks by one driver task per worker.
+ * A driver sizes every chunk by the share of the total speed of the worker running it:
+ * the speed measured on its chunks of this batch, or before its first chunk its element
+ * operations per nanosecond over earlier speed-aware chunks, which compares batches of
+ * different costs per unit. A chunk is half of that share of the units left, so chunks
+ * shrink as the batch ends and the last units go to whichever workers are free, the fast
+ * ones coming back first. No chunk is larger than an equal share of the batch, so a
+ * misleading history can't hand one worker most of it.
+ */
+final class SpeedAwareBatch {
+
+    private final TiredExecutor executor; // told the makespan when the batch ends
+    private final TiredThread[] workers;
+    private final int units;
+    private final int multiple;
+    private final int minChunk;
+    private final long costPerUnit; // element operations per unit
+    private final TiredExecutor.Chunk body;
+    private final AtomicInteger next = new AtomicInteger(0); // first unit not claimed
+    private final AtomicLongArray unitsDone; // per worker, in this batch
+    private final AtomicLongArray timeUsed; // per worker, in this batch
+    private final AtomicInteger driversLeft;
+    private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastEnd = new AtomicLong(Long.MIN_VALUE);
+
+    SpeedAwareBatch(TiredExecutor executor, TiredThread[] workers, int units, long costPerUnit, int multiple,
+                    int minChunk, TiredExecutor.Chunk body) {
+        this.executor = executor;
+        this.workers = workers;
+        this.units = units;
+        this.multiple = multiple;
+        this.minChunk = (minChunk + multiple - 1) / multiple * multiple;
+        this.costPerUnit = Math.max(1, costPerUnit);
+        this.body = body;
+        unitsDone = new AtomicLongArray(workers.length);
+        timeUsed = new AtomicLongArray(workers.length);
+        driversLeft = new AtomicInteger(Math.min(workers.length, (units + this.minChunk - 1) / this.minChunk));
+    }
+
+    List<Runnable> drivers() {
+        List<Runnable> result = new LinkedList<>();
+        for (int d=0; d<driversLeft.get(); d++) {
+            result.add(this::drive);
+        }
+        return result;
+    }
+
+    private void drive() {
+        TiredThread worker = Thread.currentThread() instanceof TiredThread t ? t : null;
+        try {
+            while (true) {
+                int start = next.get();
+                if (start >= units)
+                    return;
+                long size = (long) Math.ceil((units - start) * shareOf(worker) / 2);
+                size = Math.min(size, ((long) units + workers.length - 1) / workers.length);
+                size = Math.max(minChunk, (size + multiple - 1) / multiple * multiple);
+                int end = (int) Math.min(units, start + size);
+                if (!next.compareAndSet(start, end))
+                    continue;
+                long begin = System.nanoTime();
+                firstStart.accumulateAndGet(begin, Math::min);
+                body.compute(start, end);
+                long finish = System.nanoTime();
+                lastEnd.accumulateAndGet(finish, Math::max);
+                if (worker != null) {
+                    worker.addSpeedAwareWork((end - start) * costPerUnit, finish - begin);
+                    unitsDone.addAndGet(worker.getWorkerId(), end - start);
+                    timeUsed.addAndGet(worker.getWorkerId(), finish - begin);
+                }
+            }
+        } finally {
+            if (driversLeft.decrementAndGet() == 0)
+                executor.recordSpeedAwareBatch(Math.max(0, lastEnd.get() - firstStart.get()), uniformMakespan());
+        }
+    }
+
+    /**
+     * Units per nanosecond of a worker: measured in this batch, else from its element
+     * operations per nanosecond on earlier speed-aware chunks, else 0.
+     */
+    private double speedOf(int w) {
+        long time = timeUsed.get(w);
+        if (time > 0)
+            return (double) unitsDone.get(w) / time;
+        return workers[w].getThroughput() / costPerUnit;
+    }
+
+    /**
+     * The worker's share of the total speed; workers of unknown speed count as average.
+     */
+    private double shareOf(TiredThread worker) {
+        if (worker == null)
+            return 1.0 / workers.length;
+        double[] speeds = speeds();
+        return speeds[worker.getWorkerId()] / sum(speeds);
+    }
+
+    private double[] speeds() {
+        double[] speeds = new double[workers.length];
+        double known = 0;
+        int count = 0;
+        for (int w=0; w<workers.length; w++) {
+            speeds[w] = speedOf(w);
+            if (speeds[w] > 0) {
+                known += speeds[w];
+                count++;
+            }
+        }
+        double average = count == 0 ? 1 : known / count;
+        for (int w=0; w<workers.length; w++) {
+            if (speeds[w] <= 0)
+                speeds[w] = average;
+        }
+        return speeds;
+    }
+
+    private static double sum(double[] values) {
+        double total = 0;
+        for (double value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * Estimates the makespan of the same batch in equal tasks, one per worker: the time
+     * the slowest worker takes for its part at the speed measured here. Workers that got
+     * no chunk are left out; 0 if no worker was measured.
+     */
+    private long uniformMakespan() {
+        double slowest = Double.MAX_VALUE;
+        for (int w=0; w<workers.length; w++) {
+            if (timeUsed.get(w) > 0)
+                slowest = Math.min(slowest, (double) unitsDone.get(w) / timeUsed.get(w));
+        }
+        if (slowest == Double.MAX_VALUE)
+            return 0;
+        return (long) ((double) units / workers.length / slowest);
+    }
+}
@@ -1,97 +1,510 @@
 package scheduling;
 
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Runs tasks on TiredThreads, least tired worker first.
+ * Idle workers are kept in a concurrent skip list ordered by their fatigue when they
+ * became idle, so taking the least tired worker and returning one never share a lock.
+ * A submitter finding no idle worker parks until a returning worker wakes exactly one
+ * waiting submitter; threads waiting in submitAll are woken only when nothing is in flight.
+ * Submitters and submitAll never wait on a monitor, so the callers may be virtual threads.
+ * The one monitor is work, in WORK_STEALING mode: idle workers, which are platform
+ * threads, wait on it, and a submitter only holds it for the notify waking one of them.
+ */
 public class TiredExecutor {
 
     private final TiredThread[] workers;
-    private final PriorityBlockingQueue<TiredThread> idleMinHeap = new PriorityBlockingQueue<>();
+    private final ConcurrentSkipListSet<IdleWorker> idleWorkers = new ConcurrentSkipListSet<>(); // least tired first
+    private final Queue<Waiter> waitingSubmitters = new ConcurrentLinkedQueue<>(); // parked until a worker is idle
+    private final Queue<Thread> waitingForAll = new ConcurrentLinkedQueue<>(); // parked until nothing is in flight
     private final AtomicInteger inFlight = new AtomicInteger(0);
-    
+    private final AtomicLong dropped = new AtomicLong(0); // tasks submitted but never run, see handOff
+    private final Queue<Runnable> pendingDispatch = new ConcurrentLinkedQueue<>(); // VIRTUAL_THREADS: submitted, not handed over
+    private final AtomicBoolean dispatching = new AtomicBoolean(false); // a virtual thread is draining pendingDispatch
+    private final LatencyHistogram submitLatency = new LatencyHistogram(); // time spent in submit
+    private final LatencyHistogram completeLatency = new LatencyHistogram(); // time to return a worker after its task
+    private final AtomicLong speedAwareBatches = new AtomicLong(0);
+    private final AtomicLong speedAwareMakespan = new AtomicLong(0); // measured, summed over the batches
+    private final AtomicLong uniformMakespan = new AtomicLong(0); // estimated for equal tasks, summed
+    private final SchedulingMode mode;
+    private final Object work = new Object(); // work-stealing mode: new tasks are signalled here
+    private volatile boolean shutDown = false;
+
+    /**
+     * An idle worker, with its fatigue when it became idle; it doesn't change while idle.
+     */
+    private record IdleWorker(double fatigue, TiredThread worker) implements Comparable<IdleWorker> {
+        @Override
+        public int compareTo(IdleWorker o) {
+            int byFatigue = Double.compare(fatigue, o.fatigue);
+            return byFatigue != 0 ? byFatigue : Integer.compare(worker.getWorkerId(), o.worker.getWorkerId());
+        }
+    }
+
+    /**
+     * Computes units [start, end) of a divisible job.
+     */
+    public interface Chunk {
+        void compute(int start, int end);
+    }
+
+    /**
+     * A submitter parked until a worker returns; signalled is set by the worker waking it.
+     */
+    private static final class Waiter {
+        private final Thread thread = Thread.currentThread();
+        private volatile boolean signalled = false;
+    }
+
     public TiredExecutor(int numThreads) {
+        this(numThreads, SchedulingMode.HANDOFF);
+    }
+
+    public TiredExecutor(int numThreads, SchedulingMode mode) {
         // TODO
         if (numThreads <= 0) {
             throw new IllegalArgumentException("Illegal number of threads");
         }
+        if (mode == null) {
+            throw new IllegalArgumentException("Scheduling mode is null");
+        }
+        this.mode = mode;
         workers = new TiredThread[numThreads];
         for (int i=0; i<numThreads; i++){
             workers[i] = new TiredThread(i, 0.5 + Math.random());
+        }
+        for (int i=0; i<numThreads; i++){
+            if (mode == SchedulingMode.WORK_STEALING)
+                workers[i].enableWorkStealing(workers, work);
             workers[i].start();
-            idleMinHeap.add(workers[i]);
+            idleWorkers.add(new IdleWorker(workers[i].getFatigue(), workers[i]));
         }
     }
 
+    public SchedulingMode getMode() {
+        return mode;
+    }
+
     public void submit(Runnable task) {
         // TODO
         if (task == null){
             throw new IllegalArgumentException("Task is null");
         }
+        long start = System.nanoTime();
+        if (mode == SchedulingMode.WORK_STEALING) {
+            // the least tired worker gets first pick, the others steal from it
+            push(leastTired(), task);
+            synchronized (work) {
+                work.notify();
+            }
+            submitLatency.record(System.nanoTime() - start);
+            return;
+        }
+        dispatch(task, mode == SchedulingMode.VIRTUAL_THREADS);
+    }
 
-        TiredThread worker;
-        Runnable new_task;
-        try {
-            synchronized(idleMinHeap){
-                boolean anyAlive = false;
-                for (TiredThread w : workers) {
-                    if (w.isAlive()) {
-                        anyAlive = true;
-                        break;
-                    }
-                }
-                if (!anyAlive) {
-                    throw new IllegalStateException("Executor has been shut down");
-                }
+    /**
+     * Hands a task to an idle worker, waiting in the caller, or queues it for the virtual
+     * thread dispatching submitted tasks in order. Returns false if the task was dropped,
+     * see handOff.
+     */
+    private boolean dispatch(Runnable task, boolean virtual) {
+        if (task == null)
+            throw new IllegalArgumentException("Task is null");
+        if (shutDown)
+            throw new IllegalStateException("Executor has been shut down");
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        boolean handed = true;
+        if (virtual) {
+            pendingDispatch.add(task);
+            if (dispatching.compareAndSet(false, true))
+                Thread.ofVirtual().name("tired-dispatch").start(this::drainPendingDispatch);
+        } else {
+            handed = handOff(task);
+        }
+        submitLatency.record(System.nanoTime() - start);
+        return handed;
+    }
 
-                while (idleMinHeap.isEmpty()) {
-                    idleMinHeap.wait();
+    /**
+     * Hands the queued tasks over in submission order, until the queue is empty.
+     */
+    private void drainPendingDispatch() {
+        do {
+            for (Runnable task; (task = pendingDispatch.poll()) != null; ) {
+                try {
+                    handOff(task);
+                } catch (IllegalStateException e) {
+                    // the worker died at shutdown, the task is counted as dropped
                 }
-                worker = idleMinHeap.poll();
-                final TiredThread finalWorker = worker; 
-
-                new_task = () -> {
-                    try {
-                        task.run();
-                    } finally {
-                        synchronized(idleMinHeap){
-                            idleMinHeap.add(finalWorker);
-                            inFlight.decrementAndGet();
-                            idleMinHeap.notifyAll();
-                        }
-                    }
-                };
-
-                inFlight.incrementAndGet();
             }
-            
+            dispatching.set(false);
+            // a task queued after the last poll found dispatching still set, look again
+        } while (!pendingDispatch.isEmpty() && dispatching.compareAndSet(false, true));
+    }
+
+    /**
+     * Waits for the least tired idle worker and hands it the task, already counted in flight.
+     * Returns false if the thread was interrupted or the executor shut down meanwhile; the
+     * task is dropped then, and counted in getDropped.
+     */
+    private boolean handOff(Runnable task) {
+        IdleWorker idle = takeIdleWorker();
+        if (idle == null) {
+            dropped.incrementAndGet();
+            finishOne();
+            return false;
+        }
+        TiredThread worker = idle.worker();
+        Runnable new_task = () -> {
+            long begin = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                long end = System.nanoTime();
+                idleWorkers.add(new IdleWorker(worker.projectedFatigue(end - begin), worker));
+                finishOne();
+                wakeSubmitter();
+                completeLatency.record(System.nanoTime() - end);
+            }
+        };
+        try {
             worker.newTask(new_task);
-        } catch(InterruptedException e){
-            TiredThread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            dropped.incrementAndGet();
+            finishOne();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Takes the least tired idle worker, parking until one returns.
+     * Returns null if the thread was interrupted or the executor shut down meanwhile.
+     */
+    private IdleWorker takeIdleWorker() {
+        Thread current = Thread.currentThread();
+        while (true) {
+            if (shutDown)
+                return null;
+            IdleWorker idle = idleWorkers.pollFirst();
+            if (idle != null)
+                return idle;
+            Waiter waiter = new Waiter();
+            waitingSubmitters.add(waiter);
+            // a worker returning before we were queued wouldn't wake us, look again
+            idle = idleWorkers.pollFirst();
+            if (idle == null) {
+                while (!waiter.signalled && !current.isInterrupted() && !shutDown) {
+                    LockSupport.park(this);
+                }
+            }
+            if (!waiter.signalled)
+                waitingSubmitters.remove(waiter);
+            else if (idle != null)
+                wakeSubmitter(); // we were woken for a worker we didn't take, pass it on
+            if (idle != null)
+                return idle;
+            if (current.isInterrupted())
+                return null;
+        }
+    }
+
+    /**
+     * Wakes the submitter waiting longest for an idle worker, if any.
+     */
+    private void wakeSubmitter() {
+        Waiter waiter = waitingSubmitters.poll();
+        if (waiter != null) {
+            waiter.signalled = true;
+            LockSupport.unpark(waiter.thread);
+        }
+    }
+
+    /**
+     * Counts a task as finished, and wakes the threads waiting in submitAll with the last one.
+     */
+    private void finishOne() {
+        if (inFlight.decrementAndGet() == 0) {
+            for (Thread waiting; (waiting = waitingForAll.poll()) != null; ) {
+                LockSupport.unpark(waiting);
+            }
+        }
+    }
+
+    /**
+     * Parks until no task is in flight, or the thread is interrupted.
+     */
+    private void awaitAll() {
+        Thread current = Thread.currentThread();
+        while (inFlight.get() > 0 && !current.isInterrupted()) {
+            waitingForAll.add(current);
+            if (inFlight.get() == 0) {
+                waitingForAll.remove(current);
+                return;
+            }
+            LockSupport.park(this);
+            waitingForAll.remove(current);
         }
     }
         
+    /**
+     * Submits a batch and waits until nothing is in flight, including tasks of other callers;
+     * see submitAllAsync to wait for one batch. Throws IllegalStateException if tasks were
+     * dropped meanwhile, at shutdown or by an interrupt, instead of returning as if they ran.
+     */
     public void submitAll(Iterable<Runnable> tasks) {
         // TODO: submit tasks one by one and wait until all finish
-        Iterator<Runnable> itr = tasks.iterator();
-        while (itr.hasNext()) {
-            submit(itr.next());
+        long droppedBefore = dropped.get();
+        if (mode == SchedulingMode.WORK_STEALING) {
+            submitAllStealing(tasks);
+        } else {
+            // the caller waits for the batch anyway, so it waits for the workers too
+            Iterator<Runnable> itr = tasks.iterator();
+            while (itr.hasNext()) {
+                dispatch(itr.next(), false);
+            }
+            awaitAll();
         }
-        synchronized (idleMinHeap){
-            try {
-                while (inFlight.get() > 0) {
-                    idleMinHeap.wait();
+        long lost = dropped.get() - droppedBefore;
+        if (lost > 0)
+            throw new IllegalStateException(lost + " tasks were dropped before running");
+    }
+
+    /**
+     * Number of tasks submitted but dropped before running, at shutdown or by an interrupt.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Submits a task and returns a future completed when it finished, exceptionally with
+     * what the task threw.
+     */
+    public CompletableFuture<Void> submitAsync(Runnable task) {
+        if (task == null)
+            throw new IllegalArgumentException("Task is null");
+        return submitAllAsync(List.of(task));
+    }
+
+    /**
+     * Submits a batch and returns a future completed when all its tasks finished, unlike
+     * submitAll it doesn't wait for tasks of other callers. Every task runs even if another
+     * one fails; the future then completes exceptionally with the first exception thrown,
+     * later ones suppressed by it. In HANDOFF mode the caller still waits for idle workers
+     * to take the tasks, in VIRTUAL_THREADS mode a virtual thread does.
+     * Callbacks that don't name an executor may run on the worker finishing the batch, and
+     * count as its work.
+     */
+    public CompletableFuture<Void> submitAllAsync(Iterable<Runnable> tasks) {
+        if (tasks == null)
+            throw new IllegalArgumentException("Tasks are null");
+        if (shutDown)
+            throw new IllegalStateException("Executor has been shut down");
+        List<Runnable> tasksOfBatch = new LinkedList<>();
+        for (Runnable task : tasks) {
+            if (task == null)
+                throw new IllegalArgumentException("Task is null");
+            tasksOfBatch.add(task);
+        }
+        Batch batch = new Batch(tasksOfBatch.size());
+        List<Runnable> tracked = new LinkedList<>();
+        for (Runnable task : tasksOfBatch) {
+            tracked.add(() -> {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    batch.fail(t);
+                } finally {
+                    batch.finish(1);
                 }
-            } catch(InterruptedException e){
-                Thread.currentThread().interrupt();
+            });
+        }
+        if (tracked.isEmpty()) {
+            batch.done.complete(null);
+        } else if (mode == SchedulingMode.WORK_STEALING) {
+            deal(tracked, batch);
+        } else if (mode == SchedulingMode.VIRTUAL_THREADS) {
+            Thread.ofVirtual().name("tired-dispatch").start(() -> dispatchBatch(tracked, batch));
+        } else {
+            dispatchBatch(tracked, batch);
+        }
+        return batch.done;
+    }
+
+    /**
+     * The progress of a batch submitted with submitAllAsync. Its future completes once every
+     * task dispatched finished, and tasks never dispatched are abandoned, so a batch failing
+     * at shutdown still completes only after its running tasks.
+     */
+    private static final class Batch {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final int size;
+        private final AtomicInteger remaining; // tasks neither finished nor abandoned
+        private final AtomicReference<Throwable> failure = new AtomicReference<>(); // first one, carrying the others
+
+        Batch(int size) {
+            this.size = size;
+            this.remaining = new AtomicInteger(size);
+        }
+
+        void fail(Throwable t) {
+            if (!failure.compareAndSet(null, t) && failure.get() != t)
+                failure.get().addSuppressed(t);
+        }
+
+        void finish(int tasks) {
+            if (remaining.addAndGet(-tasks) == 0) {
+                if (failure.get() == null)
+                    done.complete(null);
+                else
+                    done.completeExceptionally(failure.get());
+            }
+        }
+
+        /**
+         * Fails the batch for the last count tasks, which will never run.
+         */
+        void abandon(Throwable reason, int count) {
+            fail(reason);
+            finish(count);
+        }
+    }
+
+    /**
+     * Hands the tasks of a batch to idle workers in order; if one is dropped or the executor
+     * shuts down, it and the rest are abandoned.
+     */
+    private void dispatchBatch(List<Runnable> tasks, Batch batch) {
+        int dispatched = 0;
+        try {
+            for (Runnable task : tasks) {
+                if (!dispatch(task, false)) {
+                    batch.abandon(new IllegalStateException("Batch was interrupted before all its tasks started"),
+                            tasks.size() - dispatched);
+                    return;
+                }
+                dispatched++;
             }
+        } catch (IllegalStateException e) {
+            batch.abandon(e, tasks.size() - dispatched);
+            if (mode == SchedulingMode.HANDOFF)
+                throw e;
         }
     }
 
+    /**
+     * Returns the tasks computing units [0, units) in chunks sized by the speed of the worker
+     * running each, see SpeedAwareBatch; submit them together, with submitAll or
+     * submitAllAsync. Every chunk but the last is a multiple of multiple, and at least minChunk.
+     * @param costPerUnit estimated element operations per unit, so that speeds measured on
+     *                    batches of different costs compare
+     */
+    public List<Runnable> speedAware(int units, long costPerUnit, int multiple, int minChunk, Chunk body) {
+        if (units < 0 || multiple < 1 || minChunk < 1 || body == null)
+            throw new IllegalArgumentException("Illegal units, chunk size or body");
+        if (units == 0)
+            return new LinkedList<>();
+        return new SpeedAwareBatch(this, workers, units, costPerUnit, multiple, minChunk, body).drivers();
+    }
+
+    void recordSpeedAwareBatch(long makespan, long uniform) {
+        speedAwareBatches.incrementAndGet();
+        speedAwareMakespan.addAndGet(makespan);
+        uniformMakespan.addAndGet(uniform);
+    }
+
+    /**
+     * Deals the batch round-robin over the workers, least tired first, without waiting for
+     * idle workers, then waits until every task in flight has finished.
+     */
+    private void submitAllStealing(Iterable<Runnable> tasks) {
+        deal(tasks, null);
+        awaitAll();
+    }
+
+    /**
+     * Deals the tasks round-robin to the workers' deques, least tired first, without waiting.
+     * If a task is rejected at shutdown, the rest are not dealt: they are abandoned by batch,
+     * or without one the rejection is thrown.
+     */
+    private void deal(Iterable<Runnable> tasks, Batch batch) {
+        // fatigue changes while workers run, sort a snapshot of it
+        double[] fatigue = new double[workers.length];
+        Integer[] order = new Integer[workers.length];
+        for (int i=0; i<workers.length; i++) {
+            fatigue[i] = workers[i].getFatigue();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> fatigue[i]));
+        int next = 0;
+        int dealt = 0;
+        try {
+            for (Runnable task : tasks) {
+                if (task == null)
+                    throw new IllegalArgumentException("Task is null");
+                push(workers[order[next]], task);
+                next = (next + 1) % order.length;
+                dealt++;
+            }
+        } catch (IllegalStateException e) {
+            if (batch == null)
+                throw e;
+            batch.abandon(e, batch.size - dealt);
+        } finally {
+            synchronized (work) {
+                work.notifyAll();
+            }
+        }
+    }
+
+    private void push(TiredThread worker, Runnable task) {
+        if (shutDown)
+            throw new IllegalStateException("Executor has been shut down");
+        inFlight.incrementAndGet();
+        worker.push(() -> {
+            try {
+                task.run();
+            } finally {
+                long end = System.nanoTime();
+                finishOne();
+                completeLatency.record(System.nanoTime() - end);
+            }
+        });
+    }
+
+    private TiredThread leastTired() {
+        TiredThread best = workers[0];
+        for (TiredThread worker : workers) {
+            if (worker.getFatigue() < best.getFatigue())
+                best = worker;
+        }
+        return best;
+    }
+
     public void shutdown() throws InterruptedException {
         // TODO
+        shutDown = true;
+        for (Waiter waiter; (waiter = waitingSubmitters.poll()) != null; ) {
+            waiter.signalled = true;
+            LockSupport.unpark(waiter.thread);
+        }
         for (int i=0; i<workers.length; i++){
             workers[i].shutdown();
         }
@@ -99,6 +512,15 @@ public class TiredExecutor {
             workers[i].join();
         }
     }
+
+    public LatencyHistogram getSubmitLatency() {
+        return submitLatency;
+    }
+
+    public LatencyHistogram getCompleteLatency() {
+        return completeLatency;
+    }
+
     public synchronized String getWorkerReport() {
         // TODO: return readable statistics for each worker
         String status = "--- Worker Report ---\n";
@@ -106,8 +528,17 @@ public class TiredExecutor {
             status = status + "Worker #" + workers[i].getWorkerId() + 
                  " [Fatigue: " + workers[i].getFatigue() + 
                  ", Time Used: " + workers[i].getTimeUsed() + 
-                 ", Time Idle: " + workers[i].getTimeIdle() + "]\n";
+                 ", Time Idle: " + workers[i].getTimeIdle() +
+                 (mode == SchedulingMode.WORK_STEALING ? ", Steals: " + workers[i].getSteals() : "") + "]\n";
         }
+        status = status + "Submit latency: " + submitLatency.summary() +
+                "\nComplete latency: " + completeLatency.summary() + "\n";
+        if (dropped.get() > 0)
+            status = status + "Dropped tasks: " + dropped.get() + "\n";
+        if (speedAwareBatches.get() > 0)
+            status = status + "Speed-aware batches: " + speedAwareBatches.get() +
+                    ", Makespan: " + speedAwareMakespan.get() / 1000 + " us" +
+                    ", Uniform tasks (estimated): " + uniformMakespan.get() / 1000 + " us\n";
         return status;
     }
 }
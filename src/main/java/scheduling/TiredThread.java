@@ -1,8 +1,11 @@
 package scheduling;
 
+import java.util.Deque;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class TiredThread extends Thread implements Comparable<TiredThread> {
@@ -23,6 +26,15 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     private final AtomicLong timeIdle = new AtomicLong(0); // Total time spent idle
     private final AtomicLong idleStartTime = new AtomicLong(0); // Timestamp when the worker became idle
 
+    // Work-stealing mode: the worker takes from the head of its deque, thieves from the tail
+    private final Deque<Runnable> deque = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger queued = new AtomicInteger(0); // size of deque, which is slow to count
+    private TiredThread[] peers = null; // workers to steal from, null in handoff mode
+    private Object work = null; // monitor idle workers wait on for new tasks
+    private final AtomicLong steals = new AtomicLong(0); // tasks taken from other workers
+    private final AtomicLong speedAwareOps = new AtomicLong(0); // element operations of speed-aware chunks done
+    private final AtomicLong speedAwareTime = new AtomicLong(0); // time spent on those chunks
+
     public TiredThread(int id, double fatigueFactor) {
         this.id = id;
         this.fatigueFactor = fatigueFactor;
@@ -38,6 +50,13 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
         return fatigueFactor * timeUsed.get();
     }
 
+    /**
+     * Returns the fatigue this worker will have once runningNanos more are added to its time used.
+     */
+    double projectedFatigue(long runningNanos) {
+        return fatigueFactor * (timeUsed.get() + runningNanos);
+    }
+
     public boolean isBusy() {
         return busy.get();
     }
@@ -50,6 +69,61 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
         return timeIdle.get();
     }
 
+    /**
+     * Switches this worker to work stealing, before it is started: it runs the tasks pushed
+     * to its deque, then steals from the most loaded peer, and waits on work when there
+     * is nothing left anywhere.
+     */
+    void enableWorkStealing(TiredThread[] peers, Object work) {
+        this.peers = peers;
+        this.work = work;
+    }
+
+    /**
+     * Queues a task on this worker's deque, in work-stealing mode. Never blocks;
+     * the caller notifies work afterwards.
+     */
+    void push(Runnable task) {
+        if (!alive.get()) {
+            throw new IllegalStateException("Worker is not alive");
+        }
+        queued.incrementAndGet();
+        deque.addLast(task);
+    }
+
+    /**
+     * Number of tasks queued on this worker's deque.
+     */
+    public int queued() {
+        return queued.get();
+    }
+
+    public long getSteals() {
+        return steals.get();
+    }
+
+    /**
+     * Records a speed-aware chunk of ops element operations computed in nanos.
+     */
+    void addSpeedAwareWork(long ops, long nanos) {
+        speedAwareOps.addAndGet(ops);
+        speedAwareTime.addAndGet(nanos);
+    }
+
+    public long getSpeedAwareOps() {
+        return speedAwareOps.get();
+    }
+
+    /**
+     * Element operations per nanosecond over the speed-aware chunks this worker computed,
+     * or 0 before the first one. Other tasks don't count: their time has no known cost.
+     */
+    public double getThroughput() {
+        long time = speedAwareTime.get();
+        long ops = speedAwareOps.get();
+        return time == 0 || ops == 0 ? 0 : (double) ops / time;
+    }
+
     /**
      * Assign a task to this worker.
      * This method is non-blocking: if the worker is not ready to accept a task,
@@ -69,6 +143,14 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
      */
     public void shutdown() {
        // TODO
+        if (peers != null) {
+            // the worker finishes the queued tasks, then exits instead of waiting
+            alive.set(false);
+            synchronized (work) {
+                work.notifyAll();
+            }
+            return;
+        }
         try{
             handoff.put(POISON_PILL);
         } catch(InterruptedException e){
@@ -79,6 +161,10 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     @Override
     public void run() {
        // TODO
+        if (peers != null) {
+            runStealing();
+            return;
+        }
         while (alive.get() && !TiredThread.currentThread().isInterrupted()) {
             Runnable curr_task;
             try {
@@ -104,6 +190,74 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
         }
     }
 
+    private void runStealing() {
+        while (!TiredThread.currentThread().isInterrupted()) {
+            Runnable task = deque.pollFirst();
+            if (task != null)
+                queued.decrementAndGet();
+            else
+                task = steal();
+            if (task == null) {
+                synchronized (work) {
+                    if (!hasQueuedWork()) {
+                        if (!alive.get())
+                            return;
+                        try {
+                            work.wait();
+                        } catch (InterruptedException e) {
+                            TiredThread.currentThread().interrupt();
+                        }
+                    }
+                }
+                continue;
+            }
+            timeIdle.addAndGet(System.nanoTime() - idleStartTime.get());
+            long start_run = System.nanoTime();
+            busy.set(true);
+            try {
+                task.run();
+            } finally {
+                busy.set(false);
+                idleStartTime.set(System.nanoTime());
+                timeUsed.addAndGet(idleStartTime.get() - start_run);
+            }
+        }
+    }
+
+    /**
+     * Takes the last task of the peer with the most queued tasks.
+     */
+    private Runnable steal() {
+        while (true) {
+            TiredThread victim = null;
+            int most = 0;
+            for (TiredThread peer : peers) {
+                int size = peer.queued.get();
+                if (peer != this && size > most) {
+                    most = size;
+                    victim = peer;
+                }
+            }
+            if (victim == null)
+                return null;
+            Runnable task = victim.deque.pollLast();
+            if (task != null) {
+                victim.queued.decrementAndGet();
+                steals.incrementAndGet();
+                return task;
+            }
+            // the victim emptied its deque meanwhile, look again
+        }
+    }
+
+    private boolean hasQueuedWork() {
+        for (TiredThread peer : peers) {
+            if (!peer.deque.isEmpty())
+                return true;
+        }
+        return false;
+    }
+
     @Override
     public int compareTo(TiredThread o) {
         // TODO
@@ -4,32 +4,162 @@ import parser.*;
 import memory.*;
 import scheduling.*;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class LinearAlgebraEngine {
 
-    private SharedMatrix leftMatrix = new SharedMatrix();
-    private SharedMatrix rightMatrix = new SharedMatrix();
+    private final BufferPool pool = new BufferPool(); // recycles matrix storage and result rows between nodes
+    private final Set<ComputationNode> ownedResults = Collections.newSetFromMap(new IdentityHashMap<>()); // nodes holding engine storage to release
+    private final Map<ComputationNode, Integer> consumers = new IdentityHashMap<>(); // operations still to read each operand
     private TiredExecutor executor;
+    private Precision precision = Precision.DOUBLE;
+    private boolean doubleAccumulation = true; // single-precision products accumulate in double
+    private final int numThreads;
+    private int strassenCrossover = 0; // 0 unless large square products use Strassen
+    private TaskGranularity granularity; // how many rows each task computes
+
+    private final OffHeapArena arena; // null unless intermediate results are kept off-heap
+    private final AlgebraicRewriter rewriter = new AlgebraicRewriter(); // simplifies the tree before it is planned
+    private final MatrixChainOptimizer chainOptimizer = new MatrixChainOptimizer(); // orders n-ary products by cost
+    private final CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator(); // shares repeated subtrees
+    private ResultCache cache; // null unless results are cached across runs
+    private final Map<ComputationNode, String> cacheKeys = new IdentityHashMap<>(); // content hash of each operation node
+    private final Map<ComputationNode, double[][]> cacheHits = new IdentityHashMap<>(); // nodes answered by the cache
+
+    /**
+     * The work of computing one node: its tasks run on the executor, then finish
+     * resolves the node on the thread running the engine. Every node gets its own
+     * operand matrices, so jobs of independent nodes can run at the same time.
+     */
+    private static class NodeJob {
+        final ComputationNode node;
+        final List<Runnable> tasks;
+        final Runnable finish;
+        volatile Throwable failure; // first exception thrown by a task
+
+        NodeJob(ComputationNode node, List<Runnable> tasks, Runnable finish) {
+            this.node = node;
+            this.tasks = tasks;
+            this.finish = finish;
+        }
+
+        void complete() {
+            if (failure instanceof RuntimeException e)
+                throw e;
+            if (failure instanceof Error e)
+                throw e;
+            if (failure != null)
+                throw new IllegalStateException(failure);
+            finish.run();
+        }
+    }
 
     public LinearAlgebraEngine(int numThreads) {
         // TODO: create executor with given thread count
-        executor = new TiredExecutor(numThreads);
+        this(numThreads, false);
+    }
+
+    /**
+     * @param offHeap keep operands and intermediate results off the Java heap between
+     *                computations; each one is released as soon as its parent is computed
+     */
+    public LinearAlgebraEngine(int numThreads, boolean offHeap) {
+        this(numThreads, offHeap, SchedulingMode.HANDOFF);
+    }
+
+    /**
+     * @param mode how the executor hands the tasks of every node to its workers; with
+     *             VIRTUAL_THREADS a node is launched without waiting for idle workers, so
+     *             finished nodes launch their parents while the workers are busy
+     */
+    public LinearAlgebraEngine(int numThreads, boolean offHeap, SchedulingMode mode) {
+        executor = new TiredExecutor(numThreads, mode);
+        this.numThreads = numThreads;
+        granularity = new TaskGranularity(TaskGranularity.DEFAULT_GRAIN, numThreads);
+        arena = offHeap ? new OffHeapArena() : null;
+    }
+
+    /**
+     * Selects the precision of this run. In FLOAT mode the dense input matrices and every
+     * intermediate result are stored and computed in single precision; the final result
+     * is still returned as double[][]. Inputs parsed in single precision are computed in
+     * single precision whatever the mode.
+     * @param doubleAccumulation accumulate the dot products of single-precision
+     *                           multiplications in double and round once per element
+     */
+    public void setPrecision(Precision precision, boolean doubleAccumulation) {
+        if (precision == null)
+            throw new IllegalArgumentException("Precision is null");
+        this.precision = precision;
+        this.doubleAccumulation = doubleAccumulation;
+    }
+
+    /**
+     * Sets the minimum number of element operations in one task, see TaskGranularity.
+     */
+    public void setTaskGrain(long grain) {
+        granularity = new TaskGranularity(grain, numThreads, granularity.isSpeedAware() ? executor : null);
+    }
+
+    /**
+     * Splits the rows of every kernel into chunks sized by the measured speed of each worker
+     * instead of equal tasks, see TiredExecutor.speedAware.
+     */
+    public void setSpeedAwareChunks(boolean enabled) {
+        granularity = new TaskGranularity(granularity.getGrain(), numThreads, enabled ? executor : null);
+    }
+
+    /**
+     * Multiplies dense square matrices larger than crossover with Strassen's algorithm,
+     * see StrassenKernel. Smaller blocks are multiplied classically; 0 turns it off.
+     */
+    public void setStrassenCrossover(int crossover) {
+        if (crossover < 0)
+            throw new IllegalArgumentException("Illegal crossover");
+        this.strassenCrossover = crossover;
+    }
+
+    /**
+     * Looks every subexpression up in cache before computing it, and stores the dense
+     * results computed by this engine in it. A cached subexpression is not descended into.
+     */
+    public void setResultCache(ResultCache cache) {
+        this.cache = cache;
     }
 
     public ComputationNode run(ComputationNode computationRoot) {
         // TODO: resolve computation tree step by step until final matrix is produced
         if (computationRoot == null)
             throw new IllegalArgumentException("The root is null");
-        while (computationRoot.getNodeType() != ComputationNodeType.MATRIX) {
-            ComputationNode currNode = computationRoot.findResolvable();
-            if (currNode.getChildren().size() > 2) {
-                currNode.associativeNesting();
-            } else {
-                loadAndCompute(currNode);
-            }
+        try {
+            rewriter.rewrite(computationRoot);
+            chainOptimizer.optimize(computationRoot);
+            eliminator.eliminate(computationRoot);
+            if (cache != null)
+                cacheKeys.putAll(new SubtreeHasher(precision + (doubleAccumulation ? "/double" : "/float")).hashAll(computationRoot));
+            if (precision == Precision.FLOAT)
+                convertLeavesToFloat(computationRoot);
+            if (arena != null)
+                moveLeavesOffHeap(computationRoot);
+            if (computationRoot.getNodeType() != ComputationNodeType.MATRIX)
+                evaluate(computationRoot);
+            // results stay in engine storage while they are consumed, the root alone is converted
+            if (computationRoot.isShared() || computationRoot.isOffHeap() || computationRoot.isSparse() || computationRoot.isFloat())
+                computationRoot.resolve(computationRoot.getMatrix());
+        } finally {
+            ownedResults.clear();
+            consumers.clear();
+            cacheKeys.clear();
+            cacheHits.clear();
+            if (arena != null)
+                arena.close();
         }
         try{
             executor.shutdown();
@@ -39,97 +169,719 @@ public class LinearAlgebraEngine {
         return computationRoot;
     }
 
+    /**
+     * Evaluates the tree as a dependency graph. Every node whose operands are all matrices
+     * is launched at once, so independent subtrees share the executor instead of running
+     * one after another. When the last task of a node finishes, the node is resolved and
+     * each of its parents is launched as soon as all of that parent's operands are resolved.
+     * A subexpression shared by several parents is computed once.
+     */
+    private void evaluate(ComputationNode root) {
+        Map<ComputationNode, List<ComputationNode>> parents = new IdentityHashMap<>(); // one entry per edge
+        Map<ComputationNode, Integer> pending = new IdentityHashMap<>(); // unresolved operands per node
+        List<ComputationNode> ready = new LinkedList<>();
+        collect(root, parents, pending, ready);
+        BlockingQueue<NodeJob> completed = new LinkedBlockingQueue<>();
+        int running = 0;
+        try {
+            for (ComputationNode node : ready) {
+                launch(start(node), completed);
+                running++;
+            }
+            while (running > 0) {
+                NodeJob job = completed.take();
+                running--;
+                job.complete();
+                cacheResult(job.node, job.node == root);
+                for (ComputationNode parent : parents.getOrDefault(job.node, List.of())) {
+                    if (pending.merge(parent, -1, Integer::sum) == 0) {
+                        launch(start(parent), completed);
+                        running++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing", e);
+        } finally {
+            // after a failure, wait for the tasks still running before their storage is freed
+            try {
+                for (; running > 0; running--) {
+                    completed.take();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Nests n-ary products into binary ones and records the dependencies of every operation
+     * node, visiting shared nodes once. Sums stay n-ary, they are added in one pass. Also counts the consumers of every operand, so shared
+     * results are freed by their last consumer.
+     * NEGATE and TRANSPOSE nodes below an operation don't get a job of their own, see operandBase.
+     */
+    private void collect(ComputationNode node, Map<ComputationNode, List<ComputationNode>> parents,
+                         Map<ComputationNode, Integer> pending, List<ComputationNode> ready) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || pending.containsKey(node))
+            return;
+        double[][] cached = cache != null && cacheKeys.containsKey(node) ? cache.get(cacheKeys.get(node)) : null;
+        if (cached != null) {
+            cacheHits.put(node, cached);
+            pending.put(node, 0);
+            ready.add(node);
+            return;
+        }
+        if (node.getChildren().size() > 2 && node.getNodeType() != ComputationNodeType.ADD)
+            node.associativeNesting();
+        int operands = 0;
+        for (ComputationNode child : node.getChildren()) {
+            ComputationNode base = operandBase(child);
+            consumers.merge(base, 1, Integer::sum);
+            if (base.getNodeType() != ComputationNodeType.MATRIX) {
+                operands++;
+                parents.computeIfAbsent(base, key -> new LinkedList<>()).add(node);
+                collect(base, parents, pending, ready);
+            }
+        }
+        pending.put(node, operands);
+        if (operands == 0)
+            ready.add(node);
+    }
+
+    /**
+     * Returns the job of a ready node: a cache hit resolves it without any task.
+     * The subtree of a hit was never collected, so its operands are not consumed.
+     */
+    private NodeJob start(ComputationNode node) {
+        double[][] cached = cacheHits.get(node);
+        if (cached == null)
+            return prepare(node);
+        return new NodeJob(node, new LinkedList<>(), () -> {
+            if (arena != null) {
+                node.resolve(arena.copyOf(cached));
+            } else {
+                node.resolve(cached);
+            }
+        });
+    }
+
+    /**
+     * Stores a dense result computed by this run in the cache, if it is the root or read by
+     * several operations. Other intermediates are left out: copying every one of them would
+     * double the memory traffic of the run for results that are rarely asked for again.
+     */
+    private void cacheResult(ComputationNode node, boolean isRoot) {
+        String key = cacheKeys.get(node);
+        if (key == null || cacheHits.containsKey(node) || node.isSparse() || node.isFloat())
+            return;
+        if (!isRoot && consumers.getOrDefault(node, 0) < 2)
+            return;
+        if (node.isShared() || node.isOffHeap())
+            cache.adopt(key, node.getMatrix()); // already a copy
+        else
+            cache.put(key, node.getMatrix());
+    }
+
+    /**
+     * Submits the tasks of a job without waiting for them; the job is queued on completed
+     * once all of them finished.
+     */
+    private void launch(NodeJob job, BlockingQueue<NodeJob> completed) {
+        if (job.tasks.isEmpty()) {
+            completed.add(job);
+            return;
+        }
+        executor.submitAllAsync(job.tasks).whenComplete((ignored, failure) -> {
+            job.failure = failure;
+            completed.add(job);
+        });
+    }
+
     public void loadAndCompute(ComputationNode node) {
         // TODO: load operand matrices
         // TODO: create compute tasks & submit tasks to executor
+        NodeJob job = prepare(node);
+        executor.submitAll(job.tasks);
+        job.finish.run();
+    }
+
+    /**
+     * Loads the operands of a node whose children are all matrices and builds its tasks.
+     */
+    private NodeJob prepare(ComputationNode node) {
         if (node == null || node.getNodeType() == null)
             throw new IllegalArgumentException("Can't compute null object");
         ComputationNodeType nodeType = node.getNodeType();
-        int childrenNum = node.getChildren().size();
         if (nodeType == ComputationNodeType.MATRIX)
             throw new IllegalArgumentException("Can't compute matrix");
+        List<ComputationNode> children = node.getChildren();
+        int childrenNum = children.size();
+        for (ComputationNode child : children) {
+            if (operandBase(child).isSparse())
+                return prepareSparse(node, children);
+        }
+        for (ComputationNode child : children) {
+            if (operandBase(child).isFloat())
+                return prepareFloat(node, children);
+        }
+        if (nodeType == ComputationNodeType.MULTIPLY && childrenNum == 2 && usesStrassen(children.getFirst(), children.getLast()))
+            return prepareStrassen(node, children);
+        List<SharedMatrix> operands = new LinkedList<>();
+        SharedMatrix result;
+        List<Runnable> tasks;
         if (nodeType == ComputationNodeType.ADD) {
-            if (childrenNum != 2) {
+            if (childrenNum < 2) {
                 throw new IllegalArgumentException("Can't compute ADD");
-            } 
-            leftMatrix.loadRowMajor(node.getChildren().getFirst().getMatrix());
-            rightMatrix.loadRowMajor(node.getChildren().getLast().getMatrix());
-            executor.submitAll(createAddTasks());
+            }
+            for (ComputationNode child : children) {
+                operands.add(operandMatrix(child));
+            }
+            result = operands.getFirst();
+            tasks = createSumTasks(operands);
         }
         else if (nodeType == ComputationNodeType.MULTIPLY) {
             if (childrenNum != 2) {
                 throw new IllegalArgumentException("Can't compute MULTIPLY");
-            } 
-            leftMatrix.loadRowMajor(node.getChildren().getFirst().getMatrix());
-            rightMatrix.loadRowMajor(node.getChildren().getLast().getMatrix());
-            executor.submitAll(createMultiplyTasks());
+            }
+            SharedMatrix leftMatrix = operandMatrix(children.getFirst());
+            SharedMatrix rightMatrix = operandMatrix(children.getLast());
+            operands.add(leftMatrix);
+            operands.add(rightMatrix);
+            if (leftMatrix.columnCount() != rightMatrix.rowCount())
+                throw new IllegalArgumentException("Invalid Matrices sizes");
+            result = new SharedMatrix(leftMatrix.rowCount(), rightMatrix.columnCount(), pool);
+            tasks = createMultiplyTasks(leftMatrix, rightMatrix, result);
         }
         else if (nodeType == ComputationNodeType.NEGATE) {
             if (childrenNum != 1) {
                 throw new IllegalArgumentException("Can't compute NEGATE");
-            } 
-            leftMatrix.loadRowMajor(node.getChildren().getFirst().getMatrix());
-            executor.submitAll(createNegateTasks());
+            }
+            result = operandMatrix(children.getFirst());
+            operands.add(result);
+            tasks = createNegateTasks(result);
         }
         else {
             if (childrenNum != 1) {
                 throw new IllegalArgumentException("Can't compute TRANSPOSE");
-            } 
-            leftMatrix.loadRowMajor(node.getChildren().getFirst().getMatrix());
-            executor.submitAll(createTransposeTasks());
+            }
+            result = operandMatrix(children.getFirst());
+            operands.add(result);
+            tasks = createTransposeTasks(result);
+        }
+        final SharedMatrix output = result;
+        return new NodeJob(node, tasks, () -> {
+            if (arena != null) {
+                node.resolve(arena.copyOf(output));
+                output.release();
+            } else {
+                // the result stays in engine storage, parents read it without a copy
+                node.resolve(output);
+                ownedResults.add(node);
+            }
+            consumeChildren(children);
+            for (SharedMatrix operand : operands) {
+                if (operand != output)
+                    operand.release();
+            }
+        });
+    }
+
+    /**
+     * Returns an operand in engine storage, with its lazy NEGATE and TRANSPOSE nodes applied
+     * as views. The storage of an engine result is taken over by its last consumer instead
+     * of being copied; the consumer releases it.
+     */
+    private SharedMatrix operandMatrix(ComputationNode operand) {
+        ComputationNode base = operandBase(operand);
+        SharedMatrix matrix;
+        if (base.isShared() && consumers.getOrDefault(base, 0) == 1 && ownedResults.remove(base)) {
+            matrix = base.getSharedMatrix();
+        } else {
+            matrix = new SharedMatrix(pool);
+            if (base.isShared()) {
+                matrix.loadFrom(base.getSharedMatrix());
+            } else if (base.isOffHeap()) {
+                base.getOffHeapMatrix().loadInto(matrix);
+            } else {
+                matrix.loadRowMajor(base.getMatrix());
+            }
         }
-        node.resolve(leftMatrix.readRowMajor());
+        if (isTransposed(operand))
+            matrix.transpose();
+        if (isNegated(operand))
+            matrix.negate();
+        return matrix;
     }
 
-    public List<Runnable> createAddTasks() {
-        // TODO: return tasks that perform row-wise addition
-        if (leftMatrix.length() != rightMatrix.length())
-            throw new IllegalArgumentException("Invalid Matrices sizes");
+    private boolean usesStrassen(ComputationNode left, ComputationNode right) {
+        if (strassenCrossover == 0)
+            return false;
+        int[] a = operandShape(left);
+        int[] b = operandShape(right);
+        return a[0] > strassenCrossover && a[0] == a[1] && b[0] == a[0] && b[1] == a[0];
+    }
+
+    /**
+     * Splits a square product into independent Strassen products, one task each.
+     * The tasks never wait on each other, so they can't deadlock the workers.
+     */
+    private NodeJob prepareStrassen(ComputationNode node, List<ComputationNode> children) {
+        StrassenKernel.Plan plan = StrassenKernel.plan(denseOperand(children.getFirst()), denseOperand(children.getLast()),
+                strassenCrossover, StrassenKernel.levelsFor(numThreads));
+        return new NodeJob(node, plan.tasks(), () -> resolveDense(node, children, plan.result()));
+    }
+
+    /**
+     * Returns {rows, columns} of an operand, with its lazy TRANSPOSE nodes applied.
+     */
+    private static int[] operandShape(ComputationNode operand) {
+        ComputationNode base = operandBase(operand);
+        int rows = base.getRowCount();
+        int cols = base.getColumnCount();
+        return isTransposed(operand) ? new int[]{cols, rows} : new int[]{rows, cols};
+    }
+
+    /**
+     * Frees the storage of children whose last consumer has just been computed:
+     * off-heap matrices are released and engine storage goes back to the pool.
+     * Input matrices that the engine didn't create are left alone.
+     */
+    private void consumeChildren(List<ComputationNode> children) {
+        for (ComputationNode operand : children) {
+            ComputationNode child = operandBase(operand);
+            Integer left = consumers.computeIfPresent(child, (key, count) -> count > 1 ? count - 1 : null);
+            if (left != null)
+                continue; // other operations still read this operand
+            if (arena != null)
+                arena.release(child.getOffHeapMatrix());
+            if (ownedResults.remove(child))
+                child.getSharedMatrix().release();
+        }
+    }
+
+    /**
+     * Prepares a node with at least one sparse operand, without densifying the sparse ones.
+     * Products and sums of two sparse matrices stay sparse while they are sparse enough.
+     */
+    private NodeJob prepareSparse(ComputationNode node, List<ComputationNode> children) {
+        ComputationNodeType nodeType = node.getNodeType();
         List<Runnable> tasks = new LinkedList<>();
-        for(int i=0 ; i< leftMatrix.length(); i++){
-            final int index = i;
-            tasks.add(() -> {
-                leftMatrix.get(index).add(rightMatrix.get(index));
+        if (nodeType == ComputationNodeType.NEGATE || nodeType == ComputationNodeType.TRANSPOSE) {
+            if (children.size() != 1)
+                throw new IllegalArgumentException("Can't compute " + nodeType);
+            SparseMatrix operand = sparseOperand(children.getFirst());
+            SparseMatrix[] result = new SparseMatrix[1];
+            tasks.add(() -> result[0] = nodeType == ComputationNodeType.NEGATE ? operand.negate() : operand.transpose());
+            return new NodeJob(node, tasks, () -> {
+                node.resolve(result[0]);
+                consumeChildren(children);
             });
         }
-        return tasks;
+        if (nodeType == ComputationNodeType.ADD && children.size() > 2)
+            return prepareSparseSum(node, children);
+        if (children.size() != 2)
+            throw new IllegalArgumentException("Can't compute " + nodeType);
+        ComputationNode left = children.getFirst();
+        ComputationNode right = children.getLast();
+        boolean leftSparse = operandBase(left).isSparse();
+        boolean rightSparse = operandBase(right).isSparse();
+        if (leftSparse && rightSparse) {
+            SparseMatrix a = sparseOperand(left);
+            SparseMatrix b = sparseOperand(right);
+            boolean multiply = nodeType == ComputationNodeType.MULTIPLY;
+            if (multiply ? a.cols() != b.rows() : (a.rows() != b.rows() || a.cols() != b.cols()))
+                throw new IllegalArgumentException("Invalid Matrices sizes");
+            int[][] rowCols = new int[a.rows()][];
+            double[][] rowValues = new double[a.rows()][];
+            long leftPerRow = 1 + a.nonZeros() / Math.max(1, a.rows());
+            long rightPerRow = 1 + b.nonZeros() / Math.max(1, b.rows());
+            tasks = granularity.split(a.rows(), multiply ? leftPerRow * rightPerRow : leftPerRow + rightPerRow, (start, end) -> {
+                if (multiply)
+                    SparseMatrix.multiplyRows(a, b, start, end, rowCols, rowValues);
+                else
+                    SparseMatrix.addRows(a, b, start, end, rowCols, rowValues);
+            });
+            return new NodeJob(node, tasks, () -> {
+                SparseMatrix result = SparseMatrix.fromRows(a.rows(), b.cols(), rowCols, rowValues);
+                if (SparseMatrix.shouldBeSparse(result.rows(), result.cols(), result.nonZeros())) {
+                    node.resolve(result);
+                    consumeChildren(children);
+                } else {
+                    resolveDense(node, children, result.toDense());
+                }
+            });
+        }
+        // exactly one operand is sparse, the result is dense
+        double[][] result;
+        if (nodeType == ComputationNodeType.ADD) {
+            SparseMatrix sparse = sparseOperand(leftSparse ? left : right);
+            ComputationNode dense = leftSparse ? right : left;
+            result = denseOperand(dense);
+            if (result.length != sparse.rows() || (result.length > 0 && result[0].length != sparse.cols()))
+                throw new IllegalArgumentException("Invalid Matrices sizes");
+            ComputationNode denseBase = operandBase(dense);
+            if (!denseBase.isOffHeap() && !denseBase.isFloat() && !denseBase.isShared() && result == denseBase.getMatrix())
+                result = copyOf(result); // the dense operand is shared, don't add into it
+            final double[][] sum = result;
+            tasks = granularity.split(sum.length, 1 + sparse.nonZeros() / Math.max(1, sum.length), (start, end) -> {
+                for (int i=start; i<end; i++) {
+                    sparse.addRowTo(i, sum[i]);
+                }
+            });
+        } else if (leftSparse) {
+            SparseMatrix a = sparseOperand(left);
+            double[][] b = denseOperand(right);
+            if (a.cols() != b.length)
+                throw new IllegalArgumentException("Invalid Matrices sizes");
+            int width = b.length > 0 ? b[0].length : 0;
+            result = new double[a.rows()][width];
+            final double[][] product = result;
+            tasks = granularity.split(a.rows(), (1 + a.nonZeros() / Math.max(1, a.rows())) * width, (start, end) -> {
+                for (int i=start; i<end; i++) {
+                    a.multiplyRow(i, b, product[i]);
+                }
+            });
+        } else {
+            double[][] a = denseOperand(left);
+            SparseMatrix b = sparseOperand(right);
+            if (a.length > 0 && a[0].length != b.rows())
+                throw new IllegalArgumentException("Invalid Matrices sizes");
+            result = new double[a.length][b.cols()];
+            final double[][] product = result;
+            tasks = granularity.split(a.length, 1 + b.nonZeros(), (start, end) -> {
+                for (int i=start; i<end; i++) {
+                    SparseMatrix.multiplyRow(a[i], b, product[i]);
+                }
+            });
+        }
+        final double[][] output = result;
+        return new NodeJob(node, tasks, () -> resolveDense(node, children, output));
+    }
+
+    /**
+     * Prepares a sum of more than two operands, some of them sparse, as one pass over the
+     * rows of a dense accumulator. The result is stored sparse if every operand was sparse
+     * and the sum is still sparse enough.
+     */
+    private NodeJob prepareSparseSum(ComputationNode node, List<ComputationNode> children) {
+        List<SparseMatrix> sparse = new LinkedList<>();
+        List<double[][]> dense = new LinkedList<>();
+        int rows = -1;
+        int cols = -1;
+        for (ComputationNode child : children) {
+            int childRows;
+            int childCols;
+            if (operandBase(child).isSparse()) {
+                SparseMatrix matrix = sparseOperand(child);
+                sparse.add(matrix);
+                childRows = matrix.rows();
+                childCols = matrix.cols();
+            } else {
+                double[][] matrix = denseOperand(child);
+                dense.add(matrix);
+                childRows = matrix.length;
+                childCols = matrix.length > 0 ? matrix[0].length : 0;
+            }
+            if (rows == -1) {
+                rows = childRows;
+                cols = childCols;
+            } else if (rows != childRows || cols != childCols) {
+                throw new IllegalArgumentException("Invalid Matrices sizes");
+            }
+        }
+        double[][] sum = new double[rows][cols];
+        long nonZeros = 0;
+        for (SparseMatrix matrix : sparse) {
+            nonZeros += matrix.nonZeros();
+        }
+        long costPerRow = (long) dense.size() * cols + 1 + nonZeros / Math.max(1, rows);
+        List<Runnable> tasks = granularity.split(rows, costPerRow, (start, end) -> {
+            for (int i=start; i<end; i++) {
+                double[] row = sum[i];
+                for (double[][] matrix : dense) {
+                    double[] addend = matrix[i];
+                    for (int j=0; j<row.length; j++) {
+                        row[j] += addend[j];
+                    }
+                }
+                for (SparseMatrix matrix : sparse) {
+                    matrix.addRowTo(i, row);
+                }
+            }
+        });
+        return new NodeJob(node, tasks, () -> {
+            if (dense.isEmpty() && SparseMatrix.shouldBeSparse(sum)) {
+                node.resolve(SparseMatrix.fromDense(sum));
+                consumeChildren(children);
+            } else {
+                resolveDense(node, children, sum);
+            }
+        });
+    }
+
+    /**
+     * Prepares a node with at least one single-precision operand. Double operands are
+     * rounded to float first, and the result stays in single precision.
+     */
+    private NodeJob prepareFloat(ComputationNode node, List<ComputationNode> children) {
+        ComputationNodeType nodeType = node.getNodeType();
+        int expected = nodeType == ComputationNodeType.ADD || nodeType == ComputationNodeType.MULTIPLY ? 2 : 1;
+        if (children.size() != expected && !(nodeType == ComputationNodeType.ADD && children.size() > 2))
+            throw new IllegalArgumentException("Can't compute " + nodeType);
+        FloatMatrix a = toFloat(children.getFirst());
+        FloatMatrix b = expected == 2 ? toFloat(children.get(1)) : null;
+        List<FloatMatrix> addends = new LinkedList<>(); // the operands of a sum after the first two
+        FloatMatrix result;
+        if (nodeType == ComputationNodeType.ADD) {
+            for (ComputationNode child : children.subList(2, children.size())) {
+                addends.add(toFloat(child));
+            }
+            for (FloatMatrix addend : addends) {
+                if (addend.rows() != a.rows() || addend.cols() != a.cols())
+                    throw new IllegalArgumentException("Invalid Matrices sizes");
+            }
+            if (a.rows() != b.rows() || a.cols() != b.cols())
+                throw new IllegalArgumentException("Invalid Matrices sizes");
+            result = new FloatMatrix(a.rows(), a.cols());
+        } else if (nodeType == ComputationNodeType.MULTIPLY) {
+            if (a.cols() != b.rows())
+                throw new IllegalArgumentException("Invalid Matrices sizes");
+            result = new FloatMatrix(a.rows(), b.cols());
+        } else if (nodeType == ComputationNodeType.NEGATE) {
+            result = new FloatMatrix(a.rows(), a.cols());
+        } else {
+            result = new FloatMatrix(a.cols(), a.rows());
+        }
+        final FloatMatrix out = result;
+        final boolean accumulateInDouble = doubleAccumulation;
+        long costPerRow = switch (nodeType) {
+            case ADD -> (long) out.cols() * (1 + addends.size());
+            case MULTIPLY -> 2L * a.cols() * out.cols();
+            default -> out.cols();
+        };
+        List<Runnable> tasks = granularity.split(out.rows(), costPerRow, (start, end) -> {
+            switch (nodeType) {
+                case ADD -> {
+                    FloatMatrix.addRows(a, b, out, start, end);
+                    for (FloatMatrix addend : addends) {
+                        FloatMatrix.addRows(out, addend, out, start, end);
+                    }
+                }
+                case MULTIPLY -> FloatMatrix.multiplyRows(a, b, out, start, end, accumulateInDouble);
+                case NEGATE -> FloatMatrix.negateRows(a, out, start, end);
+                default -> FloatMatrix.transposeRows(a, out, start, end);
+            }
+        });
+        return new NodeJob(node, tasks, () -> {
+            node.resolve(out);
+            consumeChildren(children);
+        });
+    }
+
+    /**
+     * Returns an operand in single precision, with its lazy NEGATE and TRANSPOSE nodes applied.
+     */
+    private static FloatMatrix toFloat(ComputationNode operand) {
+        ComputationNode base = operandBase(operand);
+        FloatMatrix matrix = base.isFloat() ? base.getFloatMatrix() : FloatMatrix.fromDouble(base.getMatrix());
+        if (isTransposed(operand))
+            matrix = matrix.transpose();
+        if (isNegated(operand))
+            matrix = matrix.negate();
+        return matrix;
+    }
+
+    /**
+     * Returns a sparse operand with its lazy NEGATE and TRANSPOSE nodes applied.
+     */
+    private static SparseMatrix sparseOperand(ComputationNode operand) {
+        SparseMatrix matrix = operandBase(operand).getSparseMatrix();
+        if (isTransposed(operand))
+            matrix = matrix.transpose();
+        if (isNegated(operand))
+            matrix = matrix.negate();
+        return matrix;
     }
 
-    public List<Runnable> createMultiplyTasks() {
+    /**
+     * Returns a dense operand with its lazy NEGATE and TRANSPOSE nodes applied in one pass.
+     * Without such nodes the stored matrix itself is returned.
+     */
+    private static double[][] denseOperand(ComputationNode operand) {
+        double[][] matrix = operandBase(operand).getMatrix();
+        boolean transposed = isTransposed(operand);
+        double sign = isNegated(operand) ? -1.0 : 1.0;
+        if (!transposed && sign == 1.0)
+            return matrix;
+        int rows = matrix.length;
+        int cols = rows > 0 ? matrix[0].length : 0;
+        double[][] result = transposed ? new double[cols][rows] : new double[rows][cols];
+        for (int i=0; i<rows; i++) {
+            for (int j=0; j<cols; j++) {
+                if (transposed)
+                    result[j][i] = sign * matrix[i][j];
+                else
+                    result[i][j] = sign * matrix[i][j];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Skips the NEGATE and TRANSPOSE nodes above an operand. They are never evaluated on
+     * their own: the operation using the operand folds them into its kernel as a sign and
+     * an orientation, so a chain like -(A^T) * B reads A once.
+     */
+    private static ComputationNode operandBase(ComputationNode operand) {
+        while (isLazy(operand)) {
+            operand = operand.getChildren().getFirst();
+        }
+        return operand;
+    }
+
+    private static boolean isLazy(ComputationNode node) {
+        ComputationNodeType nodeType = node.getNodeType();
+        return (nodeType == ComputationNodeType.NEGATE || nodeType == ComputationNodeType.TRANSPOSE)
+                && node.getChildren().size() == 1;
+    }
+
+    private static boolean isNegated(ComputationNode operand) {
+        return countLazy(operand, ComputationNodeType.NEGATE) % 2 == 1;
+    }
+
+    private static boolean isTransposed(ComputationNode operand) {
+        return countLazy(operand, ComputationNodeType.TRANSPOSE) % 2 == 1;
+    }
+
+    private static int countLazy(ComputationNode operand, ComputationNodeType nodeType) {
+        int count = 0;
+        for (; isLazy(operand); operand = operand.getChildren().getFirst()) {
+            if (operand.getNodeType() == nodeType)
+                count++;
+        }
+        return count;
+    }
+
+    private void resolveDense(ComputationNode node, List<ComputationNode> children, double[][] result) {
+        if (arena != null) {
+            node.resolve(arena.copyOf(result));
+        } else {
+            node.resolve(result);
+        }
+        consumeChildren(children);
+    }
+
+    private static double[][] copyOf(double[][] matrix) {
+        double[][] copy = new double[matrix.length][];
+        for (int i=0; i<matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Moves the parsed input matrices off-heap, so the parser's arrays can be collected.
+     */
+    private void moveLeavesOffHeap(ComputationNode node) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            if (!node.isOffHeap() && !node.isSparse() && !node.isFloat())
+                node.resolve(arena.copyOf(node.getMatrix()));
+            return;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            moveLeavesOffHeap(child);
+        }
+    }
+
+    /**
+     * Stores the dense input matrices in single precision. Sparse inputs stay sparse.
+     */
+    private void convertLeavesToFloat(ComputationNode node) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            if (!node.isSparse() && !node.isFloat())
+                node.resolve(FloatMatrix.fromDouble(node.getMatrix()));
+            return;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            convertLeavesToFloat(child);
+        }
+    }
+
+    public List<Runnable> createAddTasks(SharedMatrix leftMatrix, SharedMatrix rightMatrix) {
+        // TODO: return tasks that perform row-wise addition
+        return createSumTasks(List.of(leftMatrix, rightMatrix));
+    }
+
+    /**
+     * Builds the tasks adding every operand into the first one. Each task adds all the
+     * operands into one vector of the result while it is in cache, so the sum is written
+     * once instead of once per binary step.
+     */
+    public List<Runnable> createSumTasks(List<SharedMatrix> operands) {
+        if (operands.size() < 2)
+            throw new IllegalArgumentException("Can't compute ADD");
+        SharedMatrix sum = operands.getFirst();
+        SharedMatrix[] addends = operands.subList(1, operands.size()).toArray(new SharedMatrix[0]);
+        double[] alphas = new double[addends.length];
+        for (int k=0; k<addends.length; k++) {
+            SharedMatrix addend = addends[k];
+            if (sum.rowCount() != addend.rowCount() || sum.columnCount() != addend.columnCount())
+                throw new IllegalArgumentException("Invalid Matrices sizes");
+            // vectors are added pairwise, so a transposed view must be laid out like the sum
+            addend.materialize(sum.getOrientation());
+            // negated views are folded in: the stored values are combined with the relative sign,
+            // and the sign of the first operand stays on the result
+            alphas[k] = sum.isNegated() == addend.isNegated() ? 1.0 : -1.0;
+        }
+        long costPerVector = sum.length() == 0 ? 0 : (long) sum.storedVector(0).length() * addends.length;
+        return granularity.split(sum.length(), costPerVector, (start, end) -> {
+            for (int i=start; i<end; i++) {
+                SharedVector vector = sum.storedVector(i);
+                for (int k=0; k<alphas.length; k++) {
+                    vector.scaledAdd(alphas[k], addends[k].storedVector(i));
+                }
+            }
+        });
+    }
+
+    /**
+     * Builds the tasks computing leftMatrix x rightMatrix into product,
+     * a zeroed row-major matrix of the result size.
+     */
+    public List<Runnable> createMultiplyTasks(SharedMatrix leftMatrix, SharedMatrix rightMatrix, SharedMatrix product) {
         // TODO: return tasks that perform row × matrix multiplication
-        if (leftMatrix.get(0).length() != rightMatrix.length())
+        if (leftMatrix.columnCount() != rightMatrix.rowCount())
             throw new IllegalArgumentException("Invalid Matrices sizes");
-        List<Runnable> tasks = new LinkedList<>();
-        for(int i=0 ; i< leftMatrix.length(); i++){
-            final int index = i;
-            tasks.add(() -> {
-                leftMatrix.get(index).vecMatMul(rightMatrix);
-            });
-        }
-        return tasks;
+        // the right operand is packed once and shared by all tasks
+        GemmKernel.PackedMatrix packed = GemmKernel.pack(rightMatrix);
+        // the kernel multiplies stored values, the signs of the operands end up on the product
+        if (leftMatrix.isNegated() != rightMatrix.isNegated())
+            product.negate();
+        long costPerRow = 2L * leftMatrix.columnCount() * rightMatrix.columnCount();
+        // blocks are whole register tiles
+        return granularity.split(leftMatrix.rowCount(), costPerRow, GemmKernel.MR, (start, end) -> {
+            GemmKernel.multiply(leftMatrix, packed, product, start, end);
+        });
     }
 
-    public List<Runnable> createNegateTasks() {
+    public List<Runnable> createNegateTasks(SharedMatrix leftMatrix) {
         // TODO: return tasks that negate rows
+        // a negation only flips the sign of the view, it is applied when the result is read
         List<Runnable> tasks = new LinkedList<>();
-        for(int i=0 ; i< leftMatrix.length(); i++){
-            final int index = i;
-            tasks.add(() -> {
-                leftMatrix.get(index).negate();
-            });
-        }
+        tasks.add(() -> {
+            leftMatrix.negate();
+        });
         return tasks;
     }
 
-    public List<Runnable> createTransposeTasks() {
+    public List<Runnable> createTransposeTasks(SharedMatrix leftMatrix) {
         // TODO: return tasks that transpose rows
+        // a transpose only flips the view, the copy happens once when the result is read
         List<Runnable> tasks = new LinkedList<>();
-        for(int i=0 ; i< leftMatrix.length(); i++){
-            final int index = i;
-            tasks.add(() -> {
-                leftMatrix.get(index).transpose();
-            });
-        }
+        tasks.add(() -> {
+            leftMatrix.transpose();
+        });
         return tasks;
     }
 
@@ -137,7 +889,9 @@ public class LinearAlgebraEngine {
         // TODO: return summary of worker activity
         if (executor == null)
             throw new IllegalArgumentException("Executor is null");
-        String report = executor.getWorkerReport();
+        String report = executor.getWorkerReport() + pool.getReport() + granularity.getReport() + rewriter.getReport() + chainOptimizer.getReport() + eliminator.getReport();
+        if (cache != null)
+            report = report + cache.getReport();
         return report;
     }
 }
@@ -0,0 +1,114 @@
+package spl.lae;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import scheduling.TiredExecutor;
+
+/**
+ * Splits the rows of a computation into tasks. Every task handed to the executor costs a
+ * few microseconds of scheduling, so a task gets at least grain element operations, as
+ * estimated from the cost of one row; and since workers get tired at different speeds,
+ * a large computation still gets TASKS_PER_WORKER tasks per worker to balance the load.
+ * The grain never leaves a worker without a task when there are MIN_OPS_PER_WORKER element
+ * operations (or a grain, if smaller) for each; a smaller computation is a single task.
+ * With a speed-aware executor the rows are instead claimed in chunks sized by the speed
+ * of each worker, at least a grain each, see TiredExecutor.speedAware.
+ */
+public final class TaskGranularity {
+
+    public static final long DEFAULT_GRAIN = 1 << 15; // element operations per task
+    public static final int TASKS_PER_WORKER = 4; // tasks per worker when there is enough work
+    public static final long MIN_OPS_PER_WORKER = 1 << 10; // less work than this per worker isn't spread over them
+
+    private final long grain;
+    private final int workers;
+    private final TiredExecutor speedAware; // sizes chunks by worker speed, or null
+    private final AtomicLong tasks = new AtomicLong(0); // tasks created
+    private final AtomicLong rows = new AtomicLong(0); // rows covered by those tasks
+
+    /**
+     * Computes rows [start, end) of a result.
+     */
+    public interface RowBlock {
+        void compute(int start, int end);
+    }
+
+    public TaskGranularity(long grain, int workers) {
+        this(grain, workers, null);
+    }
+
+    public TaskGranularity(long grain, int workers, TiredExecutor speedAware) {
+        if (grain < 1 || workers < 1)
+            throw new IllegalArgumentException("Illegal grain or number of workers");
+        this.grain = grain;
+        this.workers = workers;
+        this.speedAware = speedAware;
+    }
+
+    /**
+     * Returns how many rows one task computes.
+     * @param costPerRow estimated element operations per row
+     * @param multiple blocks are rounded up to a multiple of it, e.g. a kernel tile height
+     */
+    public int rowsPerTask(int rowCount, long costPerRow, int multiple) {
+        if (rowCount <= 0)
+            return multiple;
+        long byGrain = (grain + Math.max(1, costPerRow) - 1) / Math.max(1, costPerRow);
+        long byBalance = (rowCount + (long) workers * TASKS_PER_WORKER - 1) / ((long) workers * TASKS_PER_WORKER);
+        long block = Math.max(byGrain, byBalance);
+        if ((double) rowCount * Math.max(1, costPerRow) >= (double) workers * Math.min(grain, MIN_OPS_PER_WORKER)) {
+            // enough work for every worker: keep them all busy
+            long byWorkers = (rowCount + workers - 1) / workers;
+            block = Math.min(byWorkers, block);
+        }
+        block = (block + multiple - 1) / multiple * multiple;
+        return (int) Math.min(Integer.MAX_VALUE, block);
+    }
+
+    public List<Runnable> split(int rowCount, long costPerRow, RowBlock block) {
+        return split(rowCount, costPerRow, 1, block);
+    }
+
+    /**
+     * Returns the tasks computing rows [0, rowCount) in blocks of rowsPerTask rows.
+     */
+    public List<Runnable> split(int rowCount, long costPerRow, int multiple, RowBlock block) {
+        int size = rowsPerTask(rowCount, costPerRow, multiple);
+        List<Runnable> result;
+        if (speedAware != null) {
+            long byGrain = (grain + Math.max(1, costPerRow) - 1) / Math.max(1, costPerRow);
+            result = speedAware.speedAware(rowCount, costPerRow, multiple, (int) Math.min(size, byGrain), block::compute);
+        } else {
+            result = new LinkedList<>();
+            for (int i=0; i<rowCount; i+=size) {
+                final int start = i;
+                final int end = (int) Math.min((long) i + size, rowCount);
+                result.add(() -> block.compute(start, end));
+            }
+        }
+        tasks.addAndGet(result.size());
+        rows.addAndGet(rowCount);
+        return result;
+    }
+
+    public long getGrain() {
+        return grain;
+    }
+
+    public boolean isSpeedAware() {
+        return speedAware != null;
+    }
+
+    public long getTasks() {
+        return tasks.get();
+    }
+
+    public String getReport() {
+        long count = tasks.get();
+        return "--- Task Granularity ---\n" +
+                "Grain: " + grain + ", Tasks: " + count +
+                ", Rows per task: " + (count == 0 ? 0 : (double) rows.get() / count) + "\n";
+    }
+}
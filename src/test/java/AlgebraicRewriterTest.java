@@ -0,0 +1,108 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import parser.AlgebraicRewriter;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+class AlgebraicRewriterTest {
+
+    private static ComputationNode leaf(int rows, int cols) {
+        return new ComputationNode(new double[rows][cols]);
+    }
+
+    private static ComputationNode op(String operator, ComputationNode... children) {
+        return new ComputationNode(operator, new ArrayList<>(List.of(children)));
+    }
+
+    @Test
+    void testDoubleNegationAndTransposeCancel() {
+        ComputationNode a = new ComputationNode(new double[][]{{1, 2}});
+        ComputationNode root = op("-", op("-", op("T", op("T", a))));
+        new AlgebraicRewriter().rewrite(root);
+        assertEquals(ComputationNodeType.MATRIX, root.getNodeType());
+        assertSame(a.getMatrix(), root.getMatrix());
+    }
+
+    @Test
+    void testNegationPulledOutOfSum() {
+        ComputationNode a = leaf(2, 2), b = leaf(2, 2), c = leaf(2, 2);
+        ComputationNode root = op("+", op("-", a), op("-", b), op("-", c));
+        new AlgebraicRewriter().rewrite(root);
+        assertEquals(ComputationNodeType.NEGATE, root.getNodeType());
+        ComputationNode sum = root.getChildren().getFirst();
+        assertEquals(ComputationNodeType.ADD, sum.getNodeType());
+        assertEquals(List.of(a, b, c), sum.getChildren());
+    }
+
+    @Test
+    void testMixedSumIsLeftAlone() {
+        ComputationNode root = op("+", op("-", leaf(2, 2)), leaf(2, 2));
+        assertEquals(0, rewrite(root));
+        assertEquals(ComputationNodeType.ADD, root.getNodeType());
+    }
+
+    @Test
+    void testNegatedFactorsCancel() {
+        ComputationNode a = leaf(2, 3), b = leaf(3, 2);
+        ComputationNode root = op("*", op("-", a), op("-", b));
+        rewrite(root);
+        assertEquals(List.of(a, b), root.getChildren());
+    }
+
+    @Test
+    void testTransposePulledOutOfProduct() {
+        // A^T * B^T -> (B * A)^T, whatever the sizes: transposes are views
+        ComputationNode a = leaf(2, 10), b = leaf(10, 2);
+        ComputationNode root = op("*", op("T", a), op("T", b));
+        rewrite(root);
+        assertEquals(ComputationNodeType.TRANSPOSE, root.getNodeType());
+        ComputationNode product = root.getChildren().getFirst();
+        assertEquals(List.of(b, a), product.getChildren());
+    }
+
+    @Test
+    void testTransposePushedIntoTransposedFactors() {
+        // (A^T * B)^T = B^T * A, one transpose instead of two
+        ComputationNode a = leaf(3, 10), b = leaf(3, 10);
+        ComputationNode root = op("T", op("*", op("T", a), b));
+        rewrite(root);
+        assertEquals(ComputationNodeType.MULTIPLY, root.getNodeType());
+        assertSame(a, root.getChildren().getLast());
+        ComputationNode bT = root.getChildren().getFirst();
+        assertEquals(ComputationNodeType.TRANSPOSE, bT.getNodeType());
+        assertSame(b, bT.getChildren().getFirst());
+    }
+
+    @Test
+    void testProductInSumIsNotTransposed() {
+        // (B * A)^T would be a transposed addend, copied to the layout of the first operand
+        ComputationNode product = op("*", op("T", leaf(2, 10)), op("T", leaf(10, 2)));
+        ComputationNode root = op("+", leaf(10, 10), op("-", product));
+        assertEquals(0, rewrite(root));
+        assertEquals(ComputationNodeType.MULTIPLY, product.getNodeType());
+    }
+
+    @Test
+    void testProductWithoutTransposedFactorIsNotTransposed() {
+        ComputationNode root = op("T", op("*", leaf(2, 3), leaf(3, 2)));
+        assertEquals(0, rewrite(root));
+    }
+
+    @Test
+    void testReportCountsNodesRemoved() {
+        AlgebraicRewriter rewriter = new AlgebraicRewriter();
+        rewriter.rewrite(op("*", op("-", leaf(2, 2)), op("-", leaf(2, 2))));
+        assertTrue(rewriter.getReport().contains("Nodes removed: 2"));
+    }
+
+    private static long rewrite(ComputationNode root) {
+        AlgebraicRewriter rewriter = new AlgebraicRewriter();
+        rewriter.rewrite(root);
+        return rewriter.getRewrites();
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Best-of-N wall clock timing shared by the benchmarks.
+ */
+final class BenchmarkTiming {
+
+    private BenchmarkTiming() {
+    }
+
+    /**
+     * Returns the best wall time in nanoseconds, after one warm-up run.
+     */
+    static long bestOf(int repetitions, Runnable run) {
+        return bestOf(repetitions, () -> run, Runnable::run);
+    }
+
+    /**
+     * Returns the best wall time in nanoseconds of run on a fresh setup() each time, after
+     * one warm-up run. Only run is timed.
+     */
+    static <T> long bestOf(int repetitions, Supplier<T> setup, Consumer<T> run) {
+        if (repetitions < 1)
+            throw new IllegalArgumentException("Illegal repetitions");
+        run.accept(setup.get());
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < repetitions; i++) {
+            T input = setup.get();
+            long start = System.nanoTime();
+            run.accept(input);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
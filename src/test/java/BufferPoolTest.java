@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import memory.BufferPool;
+import memory.SharedMatrix;
+
+class BufferPoolTest {
+
+    @Test
+    void testSizeClassesAndReuse() {
+        BufferPool pool = new BufferPool();
+        double[] buffer = pool.acquire(100);
+        assertEquals(128, buffer.length, "Buffers are rounded up to a power of two");
+        assertEquals(0, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(120), "Same size class should reuse the buffer");
+        assertEquals(1, pool.getHits());
+    }
+
+    @Test
+    void testExactRowsAndZeroed() {
+        BufferPool pool = new BufferPool();
+        double[] row = pool.acquireExact(3);
+        assertEquals(3, row.length);
+        row[1] = 5;
+        pool.release(row);
+        assertNotSame(row, pool.acquireExact(4));
+        assertSame(row, pool.acquireExact(3));
+        pool.release(row);
+        pool.release(pool.acquireZeroed(1));
+        assertEquals(0.0, pool.acquireZeroed(64)[1]);
+    }
+
+    @Test
+    void testRetainedBytesAreBounded() {
+        BufferPool pool = new BufferPool(64 * Double.BYTES);
+        pool.release(pool.acquire(64));
+        pool.release(new double[64]);
+        assertEquals(64 * Double.BYTES, pool.getRetainedBytes());
+        assertTrue(pool.getReport().contains("Dropped: 1"));
+    }
+
+    @Test
+    void testSharedMatrixReleasesStorage() {
+        BufferPool pool = new BufferPool();
+        SharedMatrix matrix = new SharedMatrix(pool);
+        matrix.loadRowMajor(new double[][]{{1, 2}, {3, 4}});
+        double[][] result = matrix.readRowMajor();
+        assertArrayEquals(new double[]{3, 4}, result[1]);
+        assertEquals(1, pool.getMisses(), "Rows of a snapshot don't come from the pool");
+        matrix.release();
+        assertEquals(0, matrix.length());
+        matrix.loadRowMajor(new double[][]{{5, 6}, {7, 8}});
+        assertEquals(1, pool.getHits(), "Storage of the first load should be reused");
+        assertEquals(8.0, matrix.get(1).get(1));
+    }
+}
@@ -0,0 +1,44 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import parser.CommonSubexpressionEliminator;
+import parser.ComputationNode;
+
+class CommonSubexpressionEliminatorTest {
+
+    private static ComputationNode op(String operator, ComputationNode... children) {
+        return new ComputationNode(operator, new ArrayList<>(List.of(children)));
+    }
+
+    @Test
+    void testRepeatedSubtreeIsShared() {
+        // X^T * X + X^T * Y, with every X parsed as its own node
+        ComputationNode xt1 = op("T", new ComputationNode(new double[][]{{1, 2}, {3, 4}}));
+        ComputationNode xt2 = op("T", new ComputationNode(new double[][]{{1, 2}, {3, 4}}));
+        ComputationNode left = op("*", xt1, new ComputationNode(new double[][]{{1, 2}, {3, 4}}));
+        ComputationNode right = op("*", xt2, new ComputationNode(new double[][]{{5, 6}, {7, 8}}));
+        ComputationNode root = op("+", left, right);
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator();
+        eliminator.eliminate(root);
+        ComputationNode sharedTranspose = root.getChildren().get(0).getChildren().get(0);
+        assertSame(sharedTranspose, root.getChildren().get(1).getChildren().get(0));
+        // the X leaves under the transpose and under the first product are the same matrix
+        assertSame(sharedTranspose.getChildren().getFirst(), root.getChildren().get(0).getChildren().get(1));
+        assertEquals(3, eliminator.getEliminated());
+    }
+
+    @Test
+    void testDifferentContentsAreNotShared() {
+        ComputationNode a = new ComputationNode(new double[][]{{1, 2}});
+        ComputationNode b = new ComputationNode(new double[][]{{1, 3}});
+        ComputationNode root = op("+", op("-", a), op("-", b));
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator();
+        eliminator.eliminate(root);
+        assertNotSame(root.getChildren().get(0), root.getChildren().get(1));
+        assertEquals(0, eliminator.getEliminated());
+    }
+}
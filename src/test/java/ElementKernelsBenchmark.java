@@ -0,0 +1,57 @@
+import java.util.Random;
+
+import memory.ElementKernels;
+import memory.ScalarKernels;
+
+/**
+ * Compares the selected ElementKernels implementation with the scalar one.
+ * Not a unit test; run it directly, with and without the Vector API module:
+ * java --add-modules jdk.incubator.vector -cp target/classes:target/test-classes ElementKernelsBenchmark [length] [repetitions]
+ */
+public class ElementKernelsBenchmark {
+
+    private static double sink; // keeps dot results alive
+
+    public static void main(String[] args) {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        ElementKernels scalar = new ScalarKernels();
+        ElementKernels selected = ElementKernels.INSTANCE;
+        double[] a = random(length, 1);
+        double[] b = random(length, 2);
+
+        System.out.println("length " + length + ", " + repetitions + " repetitions, selected: " + selected.name());
+        for (ElementKernels kernels : new ElementKernels[]{scalar, selected}) {
+            long add = time(repetitions, () -> kernels.add(a, 0, b, 0, length));
+            long scaled = time(repetitions, () -> kernels.scaledAdd(a, 0, 1e-9, b, 0, length));
+            long negate = time(repetitions, () -> kernels.negate(a, 0, length));
+            long dot = time(repetitions, () -> sink += kernels.dot(a, 0, b, 0, length));
+            System.out.printf("%-12s add %6.2f  scaledAdd %6.2f  negate %6.2f  dot %6.2f  (ns per element)%n", kernels.name(),
+                    (double) add / repetitions / length, (double) scaled / repetitions / length,
+                    (double) negate / repetitions / length, (double) dot / repetitions / length);
+        }
+    }
+
+    /**
+     * Returns the total time in nanoseconds of the measured repetitions, after an equal warm-up.
+     */
+    private static long time(int repetitions, Runnable run) {
+        for (int i = 0; i < repetitions; i++) {
+            run.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++) {
+            run.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static double[] random(int length, long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextDouble();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import memory.ElementKernels;
+import memory.ScalarKernels;
+
+class ElementKernelsTest {
+
+    // an odd length and an offset exercise both the vector loop and the scalar tail
+    private static final int LENGTH = 37;
+    private static final int OFFSET = 3;
+
+    private final ElementKernels selected = ElementKernels.INSTANCE;
+    private final ElementKernels scalar = new ScalarKernels();
+
+    @Test
+    void testAddMatchesScalar() {
+        double[] expected = random(1);
+        double[] actual = random(1);
+        double[] src = random(2);
+        scalar.add(expected, OFFSET, src, OFFSET, LENGTH);
+        selected.add(actual, OFFSET, src, OFFSET, LENGTH);
+        assertArrayEquals(expected, actual, 1e-12, "Kernel " + selected.name() + " differs from scalar add");
+    }
+
+    @Test
+    void testScaledAddMatchesScalar() {
+        double[] expected = random(1);
+        double[] actual = random(1);
+        double[] src = random(2);
+        // both paths round the product before the add, so they agree exactly
+        scalar.scaledAdd(expected, OFFSET, 0.1, src, 0, LENGTH);
+        selected.scaledAdd(actual, OFFSET, 0.1, src, 0, LENGTH);
+        assertArrayEquals(expected, actual, "Kernel " + selected.name() + " rounds scaledAdd differently");
+    }
+
+    @Test
+    void testNegateMatchesScalar() {
+        double[] expected = random(1);
+        double[] actual = random(1);
+        scalar.negate(expected, OFFSET, LENGTH);
+        selected.negate(actual, OFFSET, LENGTH);
+        assertArrayEquals(expected, actual);
+        assertEquals(random(1)[0], actual[0], "Elements before the offset were touched");
+    }
+
+    @Test
+    void testDotMatchesScalar() {
+        double[] a = random(1);
+        double[] b = random(2);
+        assertEquals(scalar.dot(a, OFFSET, b, 1, LENGTH), selected.dot(a, OFFSET, b, 1, LENGTH), 1e-9);
+    }
+
+    private static double[] random(long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[LENGTH + OFFSET];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() * 2 - 1;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import memory.FloatMatrix;
+
+class FloatMatrixTest {
+
+    @Test
+    void testRoundTrip() {
+        double[][] matrix = {{1.5, -2}, {3, 0.1}};
+        double[][] back = FloatMatrix.fromDouble(matrix).toDouble();
+        assertEquals(1.5, back[0][0]);
+        assertEquals(-2.0, back[0][1]);
+        assertEquals((double) 0.1f, back[1][1], "Values should be rounded to float");
+    }
+
+    @Test
+    void testJaggedMatrixThrows() {
+        assertThrows(IllegalArgumentException.class, () -> FloatMatrix.fromDouble(new double[][]{{1, 2}, {3}}));
+    }
+
+    @Test
+    void testOversizeMatrixThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new FloatMatrix(1 << 16, 1 << 16));
+    }
+
+    @Test
+    void testZeroTimesInfinityIsNaN() {
+        FloatMatrix left = FloatMatrix.fromDouble(new double[][]{{0, 1}});
+        FloatMatrix right = FloatMatrix.fromDouble(new double[][]{{Double.POSITIVE_INFINITY}, {2}});
+        for (boolean doubleAccumulation : new boolean[]{false, true}) {
+            FloatMatrix out = new FloatMatrix(1, 1);
+            FloatMatrix.multiplyRows(left, right, out, 0, 1, doubleAccumulation);
+            assertTrue(Float.isNaN(out.get(0, 0)), "0 * Inf should be NaN, as with doubles");
+        }
+    }
+
+    @Test
+    void testAddNegateTranspose() {
+        FloatMatrix a = FloatMatrix.fromDouble(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        FloatMatrix sum = new FloatMatrix(2, 3);
+        FloatMatrix.addRows(a, a, sum, 0, 2);
+        assertEquals(12f, sum.get(1, 2));
+        FloatMatrix negated = new FloatMatrix(2, 3);
+        FloatMatrix.negateRows(a, negated, 1, 2);
+        assertEquals(0f, negated.get(0, 0), "Rows outside the range should not be written");
+        assertEquals(-5f, negated.get(1, 1));
+        FloatMatrix transposed = new FloatMatrix(3, 2);
+        FloatMatrix.transposeRows(a, transposed, 0, 3);
+        assertEquals(6f, transposed.get(2, 1));
+        assertEquals(2f, transposed.get(1, 0));
+    }
+
+    @Test
+    void testMultiplyAccumulation() {
+        // 1 + 1e-8 + ... is lost in float sums but kept by double accumulation
+        int depth = 1000;
+        double[][] left = new double[1][depth];
+        double[][] right = new double[depth][1];
+        left[0][0] = 1;
+        right[0][0] = 1;
+        for (int p=1; p<depth; p++) {
+            left[0][p] = 1e-4;
+            right[p][0] = 1e-4;
+        }
+        FloatMatrix a = FloatMatrix.fromDouble(left);
+        FloatMatrix b = FloatMatrix.fromDouble(right);
+        FloatMatrix single = new FloatMatrix(1, 1);
+        FloatMatrix.multiplyRows(a, b, single, 0, 1, false);
+        FloatMatrix accumulated = new FloatMatrix(1, 1);
+        FloatMatrix.multiplyRows(a, b, accumulated, 0, 1, true);
+        assertEquals(1f, single.get(0, 0));
+        assertEquals((float) (1 + 999 * 1e-8), accumulated.get(0, 0), 1e-7f);
+        assertTrue(accumulated.get(0, 0) > 1f);
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.Random;
+
+import memory.GemmKernel;
+import memory.SharedMatrix;
+
+/**
+ * Compares the throughput of the tiled GemmKernel with the row-by-row
+ * SharedVector.vecMatMul path. Not a unit test; run it directly:
+ * java -cp target/classes:target/test-classes GemmKernelBenchmark [size] [repetitions]
+ */
+public class GemmKernelBenchmark {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        double[][] a = randomMatrix(size, 1);
+        double[][] b = randomMatrix(size, 2);
+        double flops = 2.0 * size * size * size;
+
+        System.out.println("size " + size + "x" + size + ", best of " + repetitions);
+        System.out.printf("vecMatMul  : %.3f GFLOP/s%n", flops / BenchmarkTiming.bestOf(repetitions, () -> vecMatMul(a, b)));
+        System.out.printf("GemmKernel : %.3f GFLOP/s%n", flops / BenchmarkTiming.bestOf(repetitions, () -> gemm(a, b)));
+    }
+
+    private static void vecMatMul(double[][] a, double[][] b) {
+        SharedMatrix left = new SharedMatrix(a);
+        SharedMatrix right = new SharedMatrix(b);
+        for (int i = 0; i < left.length(); i++) {
+            left.get(i).vecMatMul(right);
+        }
+    }
+
+    private static void gemm(double[][] a, double[][] b) {
+        SharedMatrix left = new SharedMatrix(a);
+        GemmKernel.PackedMatrix packed = GemmKernel.pack(new SharedMatrix(b));
+        SharedMatrix result = new SharedMatrix(a.length, packed.columns());
+        GemmKernel.multiply(left, packed, result, 0, a.length);
+    }
+
+    private static double[][] randomMatrix(int size, long seed) {
+        Random random = new Random(seed);
+        double[][] matrix = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                matrix[i][j] = random.nextDouble();
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import memory.GemmKernel;
+import memory.SharedMatrix;
+
+class GemmKernelTest {
+
+    @Test
+    void testMultiplySmallMatrices() {
+        SharedMatrix left = new SharedMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        SharedMatrix right = new SharedMatrix(new double[][]{{7, 8}, {9, 10}, {11, 12}});
+        SharedMatrix result = new SharedMatrix(2, 2);
+        GemmKernel.multiply(left, GemmKernel.pack(right), result, 0, 2);
+        double[][] expected = {{58, 64}, {139, 154}};
+        assertArrayEquals(expected[0], result.readRowMajor()[0], 1e-9);
+        assertArrayEquals(expected[1], result.readRowMajor()[1], 1e-9);
+    }
+
+    @Test
+    void testMultiplyUnalignedSizesMatchesNaive() {
+        // sizes that are not multiples of the register tile or of the K block
+        int n = 7, k = GemmKernel.KC + 3, m = 9;
+        double[][] a = randomMatrix(n, k, 1);
+        double[][] b = randomMatrix(k, m, 2);
+        SharedMatrix result = new SharedMatrix(n, m);
+        GemmKernel.PackedMatrix packed = GemmKernel.pack(new SharedMatrix(b));
+        SharedMatrix left = new SharedMatrix(a);
+        // computed in two row ranges, like two executor tasks
+        GemmKernel.multiply(left, packed, result, 0, 4);
+        GemmKernel.multiply(left, packed, result, 4, n);
+        double[][] actual = result.readRowMajor();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                double expected = 0;
+                for (int p = 0; p < k; p++) {
+                    expected += a[i][p] * b[p][j];
+                }
+                assertEquals(expected, actual[i][j], 1e-9, "[" + i + "][" + j + "] index not equal");
+            }
+        }
+    }
+
+    @Test
+    void testMultiplyAcrossRowAndColumnBlocksMatchesNaive() {
+        // more rows than MC and more columns than NC, a transposed left operand for good measure
+        int n = GemmKernel.MC + 5, k = 10, m = GemmKernel.NC + 6;
+        double[][] a = randomMatrix(k, n, 3);
+        double[][] b = randomMatrix(k, m, 4);
+        SharedMatrix left = new SharedMatrix(a);
+        left.transpose();
+        SharedMatrix result = new SharedMatrix(n, m);
+        GemmKernel.multiply(left, GemmKernel.pack(new SharedMatrix(b)), result, 1, n);
+        double[][] actual = result.readRowMajor();
+        assertEquals(0.0, actual[0][0], "Rows outside the range should not be written");
+        for (int i = 1; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                double expected = 0;
+                for (int p = 0; p < k; p++) {
+                    expected += a[p][i] * b[p][j];
+                }
+                assertEquals(expected, actual[i][j], 1e-9, "[" + i + "][" + j + "] index not equal");
+            }
+        }
+    }
+
+    @Test
+    void testEmptyRangeAtTheEnd() {
+        SharedMatrix left = new SharedMatrix(new double[][]{{1, 2}});
+        SharedMatrix result = new SharedMatrix(1, 1);
+        GemmKernel.multiply(left, GemmKernel.pack(new SharedMatrix(new double[][]{{1}, {2}})), result, 1, 1);
+        assertEquals(0.0, result.readRowMajor()[0][0]);
+    }
+
+    @Test
+    void testPackColumnMajorOperand() {
+        SharedMatrix right = new SharedMatrix();
+        right.loadColumnMajor(new double[][]{{1, 2}, {3, 4}});
+        SharedMatrix result = new SharedMatrix(1, 2);
+        GemmKernel.multiply(new SharedMatrix(new double[][]{{1, 1}}), GemmKernel.pack(right), result, 0, 1);
+        assertArrayEquals(new double[]{4, 6}, result.readRowMajor()[0], 1e-9);
+    }
+
+    @Test
+    void testMultiplyTransposedLeftView() {
+        SharedMatrix left = new SharedMatrix(new double[][]{{1, 4}, {2, 5}, {3, 6}});
+        left.transpose();
+        SharedMatrix result = new SharedMatrix(2, 2);
+        GemmKernel.multiply(left, GemmKernel.pack(new SharedMatrix(new double[][]{{7, 8}, {9, 10}, {11, 12}})), result, 0, 2);
+        assertArrayEquals(new double[]{58, 64}, result.readRowMajor()[0], 1e-9);
+        assertArrayEquals(new double[]{139, 154}, result.readRowMajor()[1], 1e-9);
+    }
+
+    @Test
+    void testInvalidSizesThrows() {
+        SharedMatrix left = new SharedMatrix(new double[][]{{1, 2, 3}});
+        GemmKernel.PackedMatrix packed = GemmKernel.pack(new SharedMatrix(new double[][]{{1}, {2}}));
+        assertThrows(IllegalArgumentException.class, () -> {
+            GemmKernel.multiply(left, packed, new SharedMatrix(1, 1), 0, 1);
+        });
+    }
+
+    private static double[][] randomMatrix(int rows, int cols, long seed) {
+        Random random = new Random(seed);
+        double[][] matrix = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                matrix[i][j] = random.nextDouble() * 2 - 1;
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,56 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import scheduling.LatencyHistogram;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentile(0.99));
+    }
+
+    @Test
+    void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10, histogram.count());
+        assertEquals(5, histogram.percentile(0.5));
+        assertEquals(10, histogram.percentile(1));
+    }
+
+    @Test
+    void testPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        // the upper bound of a bucket is at most 12.5% above the exact value
+        for (double fraction : new double[]{0.5, 0.9, 0.99}) {
+            long exact = (long) (fraction * 100000);
+            long reported = histogram.percentile(fraction);
+            assertTrue(reported >= exact && reported <= exact * 1.125, fraction + ": " + reported);
+        }
+        assertTrue(histogram.summary().startsWith("p50 "));
+    }
+
+    @Test
+    void testExtremeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.percentile(0.5));
+        assertEquals(Long.MAX_VALUE, histogram.percentile(1));
+    }
+
+    @Test
+    void testIllegalFraction() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThrows(IllegalArgumentException.class, () -> histogram.percentile(1.5));
+    }
+}
@@ -6,8 +6,12 @@ import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
+import memory.Precision;
+import memory.ResultCache;
+import memory.SparseMatrix;
 import parser.ComputationNode;
 import parser.ComputationNodeType;
+import scheduling.SchedulingMode;
 import spl.lae.LinearAlgebraEngine;
 
 class LinearAlgebraEngineTest {
@@ -179,6 +183,323 @@ class LinearAlgebraEngineTest {
         assertThrows(RuntimeException.class, () -> {engine.run(root2);});
     }
 
+    @Test
+    void testNestedOperationsOffHeap() {
+        // T( (A + B) * -C ) with intermediate results kept off-heap
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(4, true);
+        double[][] A = {{1, 1}, {1, 1}};
+        double[][] B = {{2, 2}, {3, 3}};
+        double[][] C = {{1, 0}, {0, 1}};
+        ComputationNode add = new ComputationNode("+", new ArrayList<>(List.of(
+                new ComputationNode(A), new ComputationNode(B))));
+        ComputationNode neg = new ComputationNode("-", new ArrayList<>(List.of(
+                new ComputationNode(C))));
+        ComputationNode mul = new ComputationNode("*", new ArrayList<>(List.of(add, neg)));
+        ComputationNode root = new ComputationNode("T", new ArrayList<>(List.of(mul)));
+        engine.run(root);
+        assertFalse(root.isOffHeap(), "The final result should be back on the heap");
+        assertMatrixEquals(new double[][]{{-3, -4}, {-3, -4}}, root.getMatrix());
+    }
+
+    @Test
+    void testSparseOperands() {
+        // (S * D) + S, with S an identity stored sparse
+        int size = 10;
+        double[][] identity = new double[size][size];
+        double[][] dense = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            identity[i][i] = 1;
+            Arrays.fill(dense[i], i);
+        }
+        ComputationNode mul = new ComputationNode("*", new ArrayList<>(List.of(
+                new ComputationNode(SparseMatrix.fromDense(identity)), new ComputationNode(dense))));
+        ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(
+                mul, new ComputationNode(SparseMatrix.fromDense(identity)))));
+        new LinearAlgebraEngine(2).run(root);
+        assertFalse(root.isSparse(), "The final result should be dense");
+        assertEquals(4.0, root.getMatrix()[3][3], 1e-9);
+        assertEquals(3.0, root.getMatrix()[3][4], 1e-9);
+    }
+
+    @Test
+    void testIndependentSubtrees() {
+        // (A * B) + (C * D) + -(A), the three operands are evaluated concurrently
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{1, 0}, {0, 1}};
+        double[][] c = {{2, 0}, {0, 2}};
+        double[][] d = {{1, 1}, {1, 1}};
+        ComputationNode ab = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(b))));
+        ComputationNode cd = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(c), new ComputationNode(d))));
+        ComputationNode negA = new ComputationNode("-", new ArrayList<>(List.of(new ComputationNode(a))));
+        ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(ab, cd, negA)));
+        new LinearAlgebraEngine(4).run(root);
+        assertMatrixEquals(new double[][]{{2, 2}, {2, 2}}, root.getMatrix());
+    }
+
+    @Test
+    void testFailingSubtreeThrows() {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] wide = {{1, 2, 3}};
+        ComputationNode good = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(a))));
+        ComputationNode bad = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(wide))));
+        ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(good, bad)));
+        assertThrows(IllegalArgumentException.class, () -> new LinearAlgebraEngine(2).run(root));
+    }
+
+    @Test
+    void testFusedNegateAndTranspose() {
+        // -(A^T) * B + -(-C), with the negations and transposes folded into the kernels
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{1, 0}, {0, 2}};
+        double[][] c = {{1, 1}, {1, 1}};
+        for (boolean offHeap : new boolean[]{false, true}) {
+            ComputationNode t = new ComputationNode("T", new ArrayList<>(List.of(new ComputationNode(a))));
+            ComputationNode negT = new ComputationNode("-", new ArrayList<>(List.of(t)));
+            ComputationNode mul = new ComputationNode("*", new ArrayList<>(List.of(negT, new ComputationNode(b))));
+            ComputationNode negC = new ComputationNode("-", new ArrayList<>(List.of(new ComputationNode(c))));
+            ComputationNode negNegC = new ComputationNode("-", new ArrayList<>(List.of(negC)));
+            ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(mul, negNegC)));
+            new LinearAlgebraEngine(2, offHeap).run(root);
+            assertMatrixEquals(new double[][]{{0, -5}, {-1, -7}}, root.getMatrix());
+        }
+    }
+
+    @Test
+    void testNegatedSumOfNegations() {
+        // -(-A + -B^T) = A + B^T
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{10, 20}, {30, 40}};
+        ComputationNode negA = new ComputationNode("-", new ArrayList<>(List.of(new ComputationNode(a))));
+        ComputationNode bT = new ComputationNode("T", new ArrayList<>(List.of(new ComputationNode(b))));
+        ComputationNode negBT = new ComputationNode("-", new ArrayList<>(List.of(bT)));
+        ComputationNode sum = new ComputationNode("+", new ArrayList<>(List.of(negA, negBT)));
+        ComputationNode root = new ComputationNode("-", new ArrayList<>(List.of(sum)));
+        new LinearAlgebraEngine(2).run(root);
+        assertMatrixEquals(new double[][]{{11, 32}, {23, 44}}, root.getMatrix());
+    }
+
+    @Test
+    void testSharedSubexpressions() {
+        // (A * B) + (A * B) + -(A * B), the product is computed once and read three times
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{0, 1}, {1, 0}};
+        for (boolean offHeap : new boolean[]{false, true}) {
+            List<ComputationNode> operands = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                ComputationNode product = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(b))));
+                operands.add(i < 2 ? product : new ComputationNode("-", new ArrayList<>(List.of(product))));
+            }
+            ComputationNode root = new ComputationNode("+", operands);
+            LinearAlgebraEngine engine = new LinearAlgebraEngine(2, offHeap);
+            engine.run(root);
+            assertMatrixEquals(new double[][]{{2, 1}, {4, 3}}, root.getMatrix());
+            // two duplicate products and four duplicate leaves
+            assertTrue(engine.getWorkerReport().contains("Shared nodes eliminated: 6"));
+        }
+    }
+
+    @Test
+    void testFloatPrecision() {
+        // -(A * B)^T + C computed in single precision
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{5, 6}, {7, 8}};
+        double[][] c = {{0.5, 0.5}, {0.5, 0.5}};
+        ComputationNode mul = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(b))));
+        ComputationNode transpose = new ComputationNode("T", new ArrayList<>(List.of(mul)));
+        ComputationNode negate = new ComputationNode("-", new ArrayList<>(List.of(transpose)));
+        ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(negate, new ComputationNode(c))));
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+        engine.setPrecision(Precision.FLOAT, false);
+        engine.run(root);
+        assertFalse(root.isFloat(), "The final result should be returned in double precision");
+        assertMatrixEquals(new double[][]{{-18.5, -42.5}, {-21.5, -49.5}}, root.getMatrix());
+    }
+
+    @Test
+    void testNarySum() {
+        // A + -B + C^T + A in one pass, in every storage mode
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{1, 1}, {1, 1}};
+        double[][] c = {{0, 1}, {2, 3}};
+        double[][] expected = {{1, 5}, {6, 10}};
+        for (int mode = 0; mode < 4; mode++) {
+            ComputationNode negated = new ComputationNode("-", new ArrayList<>(List.of(new ComputationNode(b))));
+            ComputationNode transposed = new ComputationNode("T", new ArrayList<>(List.of(
+                    mode == 3 ? new ComputationNode(SparseMatrix.fromDense(c)) : new ComputationNode(c))));
+            ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(
+                    new ComputationNode(a), negated, transposed, new ComputationNode(a))));
+            LinearAlgebraEngine engine = new LinearAlgebraEngine(2, mode == 1);
+            if (mode == 2)
+                engine.setPrecision(Precision.FLOAT, true);
+            engine.run(root);
+            assertMatrixEquals(expected, root.getMatrix());
+        }
+    }
+
+    @Test
+    void testStrassenMultiply() {
+        // -(A^T) * B with a crossover small enough to recurse, off-heap and on-heap
+        int size = 21;
+        double[][] a = new double[size][size];
+        double[][] b = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                a[i][j] = (i * 7 + j) % 5 - 2;
+                b[i][j] = (i + j * 3) % 4 - 1;
+            }
+        }
+        double[][] expected = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                for (int k = 0; k < size; k++) {
+                    expected[i][j] -= a[k][i] * b[k][j];
+                }
+            }
+        }
+        for (boolean offHeap : new boolean[]{false, true}) {
+            ComputationNode transposed = new ComputationNode("T", new ArrayList<>(List.of(new ComputationNode(a))));
+            ComputationNode negated = new ComputationNode("-", new ArrayList<>(List.of(transposed)));
+            ComputationNode root = new ComputationNode("*", new ArrayList<>(List.of(negated, new ComputationNode(b))));
+            LinearAlgebraEngine engine = new LinearAlgebraEngine(4, offHeap);
+            engine.setStrassenCrossover(4);
+            engine.run(root);
+            assertMatrixEquals(expected, root.getMatrix());
+        }
+    }
+
+    @Test
+    void testIntermediatesFeedParentsDirectly() {
+        // ((A * B)^T + A) * -(A * B): the product is read by two parents, the sum by one
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{0, 1}, {1, 1}};
+        double[][] ab = {{2, 3}, {4, 7}};
+        double[][] sum = {{3, 6}, {6, 11}};
+        double[][] expected = new double[2][2];
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                for (int k = 0; k < 2; k++) {
+                    expected[i][j] -= sum[i][k] * ab[k][j];
+                }
+            }
+        }
+        ComputationNode product = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(b))));
+        ComputationNode transposed = new ComputationNode("T", new ArrayList<>(List.of(product)));
+        ComputationNode left = new ComputationNode("+", new ArrayList<>(List.of(transposed, new ComputationNode(a))));
+        ComputationNode right = new ComputationNode("-", new ArrayList<>(List.of(product)));
+        ComputationNode root = new ComputationNode("*", new ArrayList<>(List.of(left, right)));
+        new LinearAlgebraEngine(2).run(root);
+        assertFalse(root.isShared(), "The root should be converted for the output");
+        assertMatrixEquals(expected, root.getMatrix());
+    }
+
+    @Test
+    void testWorkStealingMode() {
+        // (A * B) + (C * D) with independent products, scheduled on work-stealing deques
+        int size = 40;
+        double[][] a = new double[size][size];
+        double[][] identity = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            Arrays.fill(a[i], i);
+            identity[i][i] = 1;
+        }
+        ComputationNode left = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(identity))));
+        ComputationNode right = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(identity), new ComputationNode(a))));
+        ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(left, right)));
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(4, false, SchedulingMode.WORK_STEALING);
+        engine.run(root);
+        assertEquals(2.0 * 7, root.getMatrix()[7][3], 1e-9);
+        assertTrue(engine.getWorkerReport().contains("Steals: "));
+    }
+
+    @Test
+    void testVirtualThreadsMode() {
+        // (A * B) + (C * D), dispatched by virtual threads onto the workers
+        int size = 40;
+        double[][] a = new double[size][size];
+        double[][] identity = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            Arrays.fill(a[i], i);
+            identity[i][i] = 1;
+        }
+        ComputationNode left = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(identity))));
+        ComputationNode right = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(identity), new ComputationNode(a))));
+        ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(left, right)));
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(4, false, SchedulingMode.VIRTUAL_THREADS);
+        engine.run(root);
+        assertEquals(2.0 * 7, root.getMatrix()[7][3], 1e-9);
+    }
+
+    @Test
+    void testSpeedAwareChunks() {
+        // (A * B) + C with rows claimed in speed-sized chunks, with a tiny grain for many chunks
+        int size = 60;
+        double[][] a = new double[size][size];
+        double[][] b = new double[size][size];
+        double[][] c = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                a[i][j] = (i + 2 * j) % 7 - 3;
+                b[i][j] = (3 * i + j) % 5 - 2;
+                c[i][j] = i - j;
+            }
+        }
+        double[][] expected = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                expected[i][j] = c[i][j];
+                for (int k = 0; k < size; k++) {
+                    expected[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        ComputationNode product = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(b))));
+        ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(product, new ComputationNode(c))));
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(4);
+        engine.setTaskGrain(64);
+        engine.setSpeedAwareChunks(true);
+        engine.run(root);
+        for (int i = 0; i < size; i++) {
+            assertArrayEquals(expected[i], root.getMatrix()[i], 1e-9);
+        }
+        assertTrue(engine.getWorkerReport().contains("Speed-aware batches: "));
+    }
+
+    @Test
+    void testResultCacheAcrossRuns() {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{0, 1}, {1, 0}};
+        ResultCache cache = new ResultCache(1 << 20);
+        // (A * B) + (A * B) caches the shared product and the root, then (A * B) * C reuses
+        // the product, then (A * B) + (A * B) off-heap reuses the root
+        double[][] c = {{1, 1}, {1, 1}};
+        double[][][] expected = {{{4, 2}, {8, 6}}, {{3, 3}, {7, 7}}, {{4, 2}, {8, 6}}};
+        long[] expectedHits = {0, 1, 2};
+        for (int run = 0; run < 3; run++) {
+            ComputationNode product = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(b))));
+            ComputationNode other = run == 1 ? new ComputationNode(c)
+                    : new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(b))));
+            ComputationNode root = new ComputationNode(run == 1 ? "*" : "+", new ArrayList<>(List.of(product, other)));
+            LinearAlgebraEngine engine = new LinearAlgebraEngine(2, run == 2);
+            engine.setResultCache(cache);
+            engine.run(root);
+            assertMatrixEquals(expected[run], root.getMatrix());
+            assertEquals(expectedHits[run], cache.getHits());
+            assertTrue(engine.getWorkerReport().contains("--- Result Cache ---"));
+        }
+    }
+
+    @Test
+    void testResultCacheSkipsUnsharedIntermediates() {
+        ResultCache cache = new ResultCache(1 << 20);
+        ComputationNode product = new ComputationNode("*", new ArrayList<>(List.of(
+                new ComputationNode(new double[][]{{1, 2}, {3, 4}}), new ComputationNode(new double[][]{{0, 1}, {1, 0}}))));
+        ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(product, new ComputationNode(new double[][]{{1, 1}, {1, 1}}))));
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+        engine.setResultCache(cache);
+        engine.run(root);
+        assertEquals(4 * Double.BYTES, cache.getBytes(), "Only the root should be cached");
+    }
+
     //helping method for comparing matricies
     private void assertMatrixEquals(double[][] expected, double[][] actual) {
         assertNotNull(actual, "Matrix is null");
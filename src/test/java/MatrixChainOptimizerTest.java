@@ -0,0 +1,60 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+import parser.MatrixChainOptimizer;
+
+class MatrixChainOptimizerTest {
+
+    private static ComputationNode leaf(int rows, int cols) {
+        return new ComputationNode(new double[rows][cols]);
+    }
+
+    @Test
+    void testPicksCheapestOrder() {
+        // 100x2 * 2x100 * 100x2: A(BC) costs 2*(2*100*2 + 100*2*2), (AB)C costs 2*(100*2*100 + 100*100*2)
+        ComputationNode a = leaf(100, 2), b = leaf(2, 100), c = leaf(100, 2);
+        ComputationNode root = new ComputationNode("*", new ArrayList<>(List.of(a, b, c)));
+        MatrixChainOptimizer optimizer = new MatrixChainOptimizer();
+        optimizer.optimize(root);
+        assertEquals(2, root.getChildren().size());
+        assertSame(a, root.getChildren().get(0));
+        ComputationNode bc = root.getChildren().get(1);
+        assertEquals(ComputationNodeType.MULTIPLY, bc.getNodeType());
+        assertSame(b, bc.getChildren().get(0));
+        assertSame(c, bc.getChildren().get(1));
+        assertEquals(2L * (2*100*2 + 100*2*2), optimizer.getChosenFlops());
+        assertEquals(2L * (100*2*100 + 100*100*2), optimizer.getLeftDeepFlops());
+    }
+
+    @Test
+    void testReorderedChildrenStayMutable() {
+        ComputationNode root = new ComputationNode("*", new ArrayList<>(List.of(leaf(4, 2), leaf(2, 4), leaf(4, 2))));
+        new MatrixChainOptimizer().optimize(root);
+        // later passes edit children in place
+        assertDoesNotThrow(() -> root.getChildren().set(0, leaf(4, 2)));
+    }
+
+    @Test
+    void testMismatchedChainIsLeftAlone() {
+        ComputationNode root = new ComputationNode("*", new ArrayList<>(List.of(leaf(2, 3), leaf(2, 3), leaf(3, 3))));
+        new MatrixChainOptimizer().optimize(root);
+        assertEquals(3, root.getChildren().size());
+    }
+
+    @Test
+    void testShapesPropagateThroughOperations() {
+        // (T(3x100)) * 3x100 * 100x3, the first operand's shape comes from the transpose
+        ComputationNode t = new ComputationNode("T", new ArrayList<>(List.of(leaf(3, 100))));
+        ComputationNode root = new ComputationNode("*", new ArrayList<>(List.of(t, leaf(3, 100), leaf(100, 3))));
+        MatrixChainOptimizer optimizer = new MatrixChainOptimizer();
+        optimizer.optimize(root);
+        assertSame(t, root.getChildren().get(0));
+        assertTrue(optimizer.getChosenFlops() < optimizer.getLeftDeepFlops());
+    }
+}
@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import memory.OffHeapArena;
+import memory.OffHeapMatrix;
+import memory.SharedMatrix;
+
+class OffHeapMatrixTest {
+
+    private final double[][] originMat = {{1.0, 2.0, 3.0}, {4.0, 5.0, 6.0}};
+
+    @Test
+    void testCopyAndToArray() {
+        try (OffHeapMatrix matrix = OffHeapMatrix.copyOf(originMat)) {
+            assertEquals(2, matrix.rows());
+            assertEquals(3, matrix.cols());
+            assertEquals(48, matrix.byteSize());
+            double[][] result = matrix.toArray();
+            assertArrayEquals(originMat[0], result[0]);
+            assertArrayEquals(originMat[1], result[1]);
+        }
+    }
+
+    @Test
+    void testLoadIntoSharedMatrix() {
+        SharedMatrix shared = new SharedMatrix();
+        try (OffHeapMatrix matrix = OffHeapMatrix.copyOf(originMat)) {
+            matrix.loadInto(shared);
+        }
+        assertEquals(2, shared.rowCount());
+        assertEquals(6.0, shared.get(1).get(2));
+    }
+
+    @Test
+    void testCopyOfTransposedSharedMatrix() {
+        SharedMatrix shared = new SharedMatrix(originMat);
+        shared.transpose();
+        try (OffHeapMatrix matrix = OffHeapMatrix.copyOf(shared)) {
+            assertEquals(3, matrix.rows());
+            assertArrayEquals(new double[]{3.0, 6.0}, matrix.toArray()[2]);
+        }
+    }
+
+    @Test
+    void testClosedMatrixThrows() {
+        OffHeapMatrix matrix = OffHeapMatrix.copyOf(originMat);
+        matrix.close();
+        assertTrue(matrix.isClosed());
+        assertThrows(IllegalStateException.class, matrix::toArray);
+    }
+
+    @Test
+    void testIllegalSizesThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapMatrix(-1, 2));
+        // a single row larger than a buffer chunk
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapMatrix(1, 1 << 28));
+    }
+
+    @Test
+    void testArenaAccounting() {
+        OffHeapArena arena = new OffHeapArena();
+        OffHeapMatrix first = arena.copyOf(originMat);
+        OffHeapMatrix second = arena.copyOf(originMat);
+        assertEquals(96, arena.getLiveBytes());
+        arena.release(first);
+        arena.release(first);
+        assertTrue(first.isClosed());
+        assertEquals(48, arena.getLiveBytes());
+        arena.close();
+        assertTrue(second.isClosed());
+        assertEquals(0, arena.getLiveBytes());
+        assertEquals(96, arena.getPeakBytes());
+    }
+}
@@ -0,0 +1,148 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import memory.ResultCache;
+
+class ResultCacheTest {
+
+    @Test
+    void testGetReturnsCopy() {
+        ResultCache cache = new ResultCache(1024);
+        double[][] matrix = {{1, 2}, {3, 4}};
+        cache.put("a", matrix);
+        matrix[0][0] = 9;
+        double[][] cached = cache.get("a");
+        assertEquals(1, cached[0][0]);
+        cached[0][0] = 7;
+        assertEquals(1, cache.get("a")[0][0]);
+    }
+
+    @Test
+    void testLeastRecentlyUsedIsEvicted() {
+        // room for two 2x2 matrices
+        ResultCache cache = new ResultCache(64);
+        cache.put("a", new double[][]{{1, 1}, {1, 1}});
+        cache.put("b", new double[][]{{2, 2}, {2, 2}});
+        assertNotNull(cache.get("a"));
+        cache.put("c", new double[][]{{3, 3}, {3, 3}});
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(64, cache.getBytes());
+    }
+
+    @Test
+    void testEntryLargerThanBudgetIsNotKept() {
+        ResultCache cache = new ResultCache(16);
+        cache.put("a", new double[][]{{1, 2, 3}});
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    void testHitRateAndBytesSaved() {
+        ResultCache cache = new ResultCache(1024);
+        cache.put("a", new double[][]{{1, 2}});
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2.0 / 3, cache.getHitRate(), 1e-12);
+        assertEquals(32, cache.getBytesSaved());
+    }
+
+    @Test
+    void testEntriesSurviveOnDisk() throws IOException {
+        Path directory = Files.createTempDirectory("result-cache");
+        try {
+            ResultCache cache = new ResultCache(1024, directory);
+            cache.put("a", new double[][]{{1, 2}, {3, 4}});
+            cache.flush();
+            // a new cache, as after a restart, with no room in memory
+            ResultCache restarted = new ResultCache(0, directory);
+            assertArrayEquals(new double[]{3, 4}, restarted.get("a")[1]);
+            assertTrue(restarted.getReport().contains("(1 from disk)"));
+            assertNull(restarted.get("b"));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testDiskTierIsBoundedLeastRecentlyUsedFirst() throws IOException {
+        Path directory = Files.createTempDirectory("result-cache");
+        try {
+            // every file is 8 header bytes and 32 bytes of values: room for two on disk, none in memory
+            ResultCache cache = new ResultCache(0, directory, 80);
+            cache.put("a", new double[][]{{1, 2}, {3, 4}});
+            cache.put("b", new double[][]{{5, 6}, {7, 8}});
+            cache.flush();
+            assertNotNull(cache.get("a"));
+            cache.put("c", new double[][]{{9, 10}, {11, 12}});
+            cache.flush();
+            assertEquals(80, cache.getDiskBytes());
+            assertFalse(Files.exists(directory.resolve("b.bin")));
+            assertTrue(Files.exists(directory.resolve("a.bin")));
+            assertNull(cache.get("b"));
+            assertArrayEquals(new double[]{11, 12}, new ResultCache(0, directory).get("c")[1]);
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCorruptDiskEntryIsAMiss() throws IOException {
+        Path directory = Files.createTempDirectory("result-cache");
+        try {
+            // a header claiming a huge matrix in a 16 byte file
+            Files.write(directory.resolve("a.bin"), new byte[]{0x7f, 0, 0, 0, 0x7f, 0, 0, 0, 1, 2, 3, 4, 5, 6, 7, 8});
+            ResultCache cache = new ResultCache(1024, directory);
+            assertNull(cache.get("a"));
+            assertTrue(cache.getReport().contains("Disk errors: 1"));
+            assertEquals(0, cache.getDiskBytes());
+            // the entry was dropped, so it isn't read again
+            assertNull(cache.get("a"));
+            assertTrue(cache.getReport().contains("Disk errors: 1"));
+            cache.flush();
+            assertFalse(Files.exists(directory.resolve("a.bin")));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testAdoptKeepsTheMatrix() {
+        ResultCache cache = new ResultCache(1024);
+        double[][] matrix = {{1, 2}};
+        cache.adopt("a", matrix);
+        assertEquals(16, cache.getBytes());
+        assertArrayEquals(new double[]{1, 2}, cache.get("a")[0]);
+    }
+
+    @Test
+    void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new ResultCache(-1));
+        assertThrows(IllegalArgumentException.class, () -> new ResultCache(8, null, -1));
+        assertThrows(IllegalArgumentException.class, () -> new ResultCache(8).put("a", null));
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import scheduling.TiredExecutor;
+
+/**
+ * Measures the submit and complete latency of the handoff mode of TiredExecutor for
+ * growing numbers of workers, with as many threads submitting as there are workers.
+ * Not a unit test; run it directly:
+ * java -cp target/classes:target/test-classes SchedulingLatencyBenchmark [tasks per submitter] [work]
+ */
+public class SchedulingLatencyBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int work = args.length > 1 ? Integer.parseInt(args[1]) : 200; // loop iterations per task
+
+        System.out.println(count + " tasks of " + work + " iterations per submitter");
+        for (int workers : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            TiredExecutor executor = new TiredExecutor(workers);
+            AtomicLong sink = new AtomicLong();
+            List<Thread> submitters = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int s = 0; s < workers; s++) {
+                Thread submitter = new Thread(() -> {
+                    for (int i = 0; i < count; i++) {
+                        executor.submit(() -> sink.addAndGet(spin(work)));
+                    }
+                });
+                submitters.add(submitter);
+                submitter.start();
+            }
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+            executor.submitAll(List.of());
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%2d workers: %.0f ns/task, submit %s, complete %s%n", workers,
+                    (double) elapsed / ((long) workers * count),
+                    executor.getSubmitLatency().summary(), executor.getCompleteLatency().summary());
+            executor.shutdown();
+        }
+    }
+
+    private static long spin(int iterations) {
+        long x = 1;
+        for (int i = 0; i < iterations; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x;
+    }
+}
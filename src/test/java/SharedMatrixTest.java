@@ -78,4 +78,113 @@ class SharedMatrixTest {
             matrix.loadRowMajor(null);
         }, "Loading null doesn't throw IllegalArgumentException");
     }
+
+    @Test
+    void testColumnViewsOverContiguousStorage() {
+        matrix.loadColumnMajor(new double[][]{{1.0, 2.0, 3.0}, {4.0, 5.0, 6.0}});
+        assertEquals(3, matrix.length(), "Column-major matrix should expose one vector per column");
+        assertEquals(2, matrix.get(2).length());
+        assertEquals(3.0, matrix.get(2).get(0));
+        assertEquals(6.0, matrix.get(2).get(1));
+    }
+
+    @Test
+    void testInconsistentRowSizesThrows() {
+        assertThrows(IllegalArgumentException.class, () -> {
+            matrix.loadRowMajor(new double[][]{{1.0, 2.0}, {3.0}});
+        }, "Loading a jagged matrix doesn't throw IllegalArgumentException");
+    }
+
+    @Test
+    void testTransposeView() {
+        matrix.loadRowMajor(new double[][]{{1.0, 2.0, 3.0}, {4.0, 5.0, 6.0}});
+        matrix.transpose();
+        assertEquals(3, matrix.rowCount());
+        assertEquals(2, matrix.columnCount());
+        double[][] result = matrix.readRowMajor();
+        assertArrayEquals(new double[]{1.0, 4.0}, result[0]);
+        assertArrayEquals(new double[]{3.0, 6.0}, result[2]);
+    }
+
+    @Test
+    void testMaterializeTransposedView() {
+        matrix.loadRowMajor(new double[][]{{1.0, 2.0, 3.0}, {4.0, 5.0, 6.0}});
+        matrix.transpose();
+        matrix.materialize(VectorOrientation.ROW_MAJOR);
+        assertEquals(VectorOrientation.ROW_MAJOR, matrix.getOrientation());
+        assertEquals(3, matrix.length());
+        assertEquals(4.0, matrix.get(0).get(1));
+        assertEquals(6.0, matrix.get(2).get(1));
+    }
+
+    @Test
+    void testStripedLocks() throws InterruptedException {
+        SharedMatrix striped = new SharedMatrix(null, 4);
+        double[][] big = new double[100][3];
+        big[99][2] = 7.0;
+        striped.loadRowMajor(big);
+        assertEquals(4, striped.stripeCount());
+        // rows of the same stripe share a lock, adding one into another must not deadlock
+        striped.get(0).add(striped.get(1));
+        // a snapshot waits for writers of any stripe
+        striped.get(98).writeLock();
+        double[][][] snapshot = new double[1][][];
+        Thread reader = new Thread(() -> snapshot[0] = striped.readRowMajor());
+        reader.start();
+        reader.join(100);
+        assertNull(snapshot[0], "The snapshot should wait for the writer");
+        striped.get(98).writeUnlock();
+        reader.join();
+        assertEquals(7.0, snapshot[0][99][2]);
+    }
+
+    @Test
+    void testFewerRowsThanStripes() {
+        matrix.loadRowMajor(originMat);
+        assertEquals(2, matrix.stripeCount());
+        assertThrows(IllegalArgumentException.class, () -> new SharedMatrix(null, 0));
+    }
+
+    @Test
+    void testOversizeMatrixIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new SharedMatrix(1 << 16, 1 << 16));
+    }
+
+    @Test
+    void testNegateView() {
+        matrix.loadRowMajor(new double[][]{{1.0, 2.0, 3.0}, {4.0, 5.0, 6.0}});
+        matrix.negate();
+        assertTrue(matrix.isNegated());
+        assertEquals(1.0, matrix.storedVector(0).get(0), "Stored values should not be written");
+        matrix.transpose();
+        double[][] result = matrix.readRowMajor();
+        assertArrayEquals(new double[]{-1.0, -4.0}, result[0]);
+        assertArrayEquals(new double[]{-3.0, -6.0}, result[2]);
+        matrix.loadRowMajor(originMat);
+        assertFalse(matrix.isNegated(), "Loading new data should reset the sign");
+    }
+
+    @Test
+    void testVectorsAgreeWithReadRowMajorAfterNegate() {
+        matrix.loadRowMajor(new double[][]{{1.0, 2.0}, {3.0, 4.0}});
+        matrix.negate();
+        assertEquals(-4.0, matrix.get(1).get(1));
+        assertFalse(matrix.isNegated(), "The sign should be written once vectors are exposed");
+        assertArrayEquals(new double[]{-1.0, -2.0}, matrix.readRowMajor()[0]);
+        assertEquals(-2.0, matrix.get(0).get(1), "The sign should be applied only once");
+    }
+
+    @Test
+    void testLoadFromCopiesViews() {
+        SharedMatrix source = new SharedMatrix(new double[][]{{1.0, 2.0, 3.0}, {4.0, 5.0, 6.0}});
+        source.transpose();
+        source.negate();
+        SharedMatrix copy = new SharedMatrix();
+        copy.loadFrom(source);
+        assertTrue(copy.isNegated());
+        assertEquals(3, copy.rowCount());
+        assertArrayEquals(source.readRowMajor()[1], copy.readRowMajor()[1]);
+        source.get(0).negate();
+        assertEquals(-1.0, copy.readRowMajor()[0][0], "The copy should have its own storage");
+    }
 }
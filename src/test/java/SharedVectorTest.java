@@ -1,6 +1,9 @@
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.concurrent.TimeUnit;
 
 import memory.SharedMatrix;
 import memory.SharedVector;
@@ -95,4 +98,113 @@ class SharedVectorTest {
             vec2.vecMatMul(matrix);
         }, "doesn't throw exception if vector is not ROW_MAJOR");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testScaledAdd() {
+        vec1.scaledAdd(-2.0, vec2);
+        assertEquals(-7.0, vec1.get(0));
+        assertEquals(-8.0, vec1.get(1));
+        assertEquals(-9.0, vec1.get(2));
+    }
+
+    @Test
+    void testAddToItself() {
+        vec1.add(vec1);
+        assertEquals(2.0, vec1.get(0));
+        assertEquals(6.0, vec1.get(2));
+    }
+
+    @Test
+    void testCopyToAndCopyFrom() {
+        double[] out = new double[4];
+        vec1.copyTo(out, 1);
+        assertArrayEquals(new double[]{0.0, 1.0, 2.0, 3.0}, out);
+        vec1.copyFrom(new double[]{7.0, 8.0, 9.0}, 0);
+        assertEquals(8.0, vec1.get(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> {
+            vec1.copyTo(new double[2], 0);
+        });
+    }
+
+    @Test
+    void testOptimisticReads() {
+        vec1.setOptimisticReads(true);
+        vec2.setOptimisticReads(true);
+        assertEquals(2.0, vec1.get(1));
+        assertEquals(3, vec1.length());
+        assertEquals(32.0, vec1.dot(vec2), "Dot result isn't 32.0");
+        vec1.negate();
+        assertEquals(-2.0, vec1.get(1), "Optimistic read didn't see the write");
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testVecMatMulOnItsOwnMatrix() {
+        SharedMatrix matrix = new SharedMatrix(new double[][]{{1, 2}, {3, 4}});
+        SharedVector row = matrix.get(0);
+        // the row's lock is also one the matrix read locks
+        row.vecMatMul(matrix);
+        assertEquals(1 * 1 + 2 * 3, row.get(0));
+        assertEquals(1 * 2 + 2 * 4, row.get(1));
+    }
+
+    @Test
+    void testVecMatMulResultStaysInTheMatrix() {
+        SharedMatrix matrix = new SharedMatrix(new double[][]{{1, 2}, {3, 4}});
+        SharedMatrix operand = new SharedMatrix(new double[][]{{0, 1}, {1, 0}});
+        operand.negate();
+        matrix.get(1).vecMatMul(operand);
+        assertArrayEquals(new double[]{-4, -3}, matrix.readRowMajor()[1], "The row should be written in place with the operand's sign");
+    }
+
+    @Test
+    void testVecMatMulResultMustFitAMatrixRow() {
+        SharedMatrix matrix = new SharedMatrix(new double[][]{{1, 2}, {3, 4}});
+        SharedMatrix wide = new SharedMatrix(new double[][]{{1, 0, 0}, {0, 1, 0}});
+        assertThrows(IllegalArgumentException.class, () -> matrix.get(0).vecMatMul(wide));
+        assertArrayEquals(new double[]{1, 2}, matrix.readRowMajor()[0]);
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testLocksAreReentrant() {
+        SharedMatrix matrix = new SharedMatrix(banded());
+        SharedVector row = matrix.get(0);
+        row.writeLock();
+        try {
+            assertEquals(VectorOrientation.ROW_MAJOR, row.getOrientation());
+            assertEquals(2, row.length());
+            // another row of the same band
+            assertEquals(1, matrix.get(1).get(0));
+        } finally {
+            row.writeUnlock();
+        }
+    }
+
+    @Test
+    void testWriteLockUnderReadLockOfSameBandThrows() {
+        SharedMatrix matrix = new SharedMatrix(banded());
+        SharedVector row = matrix.get(0);
+        row.readLock();
+        try {
+            // one band: waiting for the write lock would wait for ourselves
+            assertThrows(IllegalStateException.class, () -> matrix.get(1).writeLock());
+        } finally {
+            row.readUnlock();
+        }
+        matrix.get(1).negate();
+        assertEquals(-1, matrix.get(1).get(0));
+    }
+
+    /**
+     * Rows i and i + 1 of a matrix with twice as many rows as lock stripes share a band.
+     */
+    private static double[][] banded() {
+        double[][] rows = new double[2 * SharedMatrix.DEFAULT_LOCK_STRIPES][2];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i][0] = i;
+            rows[i][1] = i + 1;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,71 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import memory.SparseMatrix;
+
+class SparseMatrixTest {
+
+    private final double[][] a = {
+        {1, 0, 0},
+        {0, 0, 2},
+        {0, 3, 0}
+    };
+    private final double[][] b = {
+        {0, 4, 0},
+        {5, 0, 0},
+        {0, 0, -2}
+    };
+
+    @Test
+    void testDenseRoundTrip() {
+        SparseMatrix sparse = SparseMatrix.fromDense(a);
+        assertEquals(3, sparse.nonZeros());
+        assertEquals(1.0 / 3, sparse.density(), 1e-9);
+        double[][] dense = sparse.toDense();
+        for (int i = 0; i < a.length; i++) {
+            assertArrayEquals(a[i], dense[i]);
+        }
+    }
+
+    @Test
+    void testTranspose() {
+        double[][] transposed = SparseMatrix.fromDense(a).transpose().toDense();
+        assertArrayEquals(new double[]{0, 0, 3}, transposed[1]);
+        assertArrayEquals(new double[]{0, 2, 0}, transposed[2]);
+    }
+
+    @Test
+    void testSparseTimesSparseAndSparseTimesDense() {
+        SparseMatrix left = SparseMatrix.fromDense(a);
+        SparseMatrix right = SparseMatrix.fromDense(b);
+        int[][] rowCols = new int[3][];
+        double[][] rowValues = new double[3][];
+        SparseMatrix.multiplyRows(left, right, 0, 3, rowCols, rowValues);
+        double[][] product = SparseMatrix.fromRows(3, 3, rowCols, rowValues).toDense();
+        double[] denseRow = new double[3];
+        for (int i = 0; i < 3; i++) {
+            left.multiplyRow(i, b, denseRow);
+            assertArrayEquals(denseRow, product[i], 1e-9);
+            SparseMatrix.multiplyRow(a[i], right, denseRow);
+            assertArrayEquals(denseRow, product[i], 1e-9);
+        }
+        assertArrayEquals(new double[]{0, 0, -4}, product[1], 1e-9);
+    }
+
+    @Test
+    void testAddDropsCancelledEntries() {
+        SparseMatrix left = SparseMatrix.fromDense(a);
+        int[][] rowCols = new int[3][];
+        double[][] rowValues = new double[3][];
+        SparseMatrix.addRows(left, left.negate(), 0, 3, rowCols, rowValues);
+        assertEquals(0, SparseMatrix.fromRows(3, 3, rowCols, rowValues).nonZeros());
+    }
+
+    @Test
+    void testShouldBeSparse() {
+        assertFalse(SparseMatrix.shouldBeSparse(a), "Small matrices should stay dense");
+        double[][] large = new double[20][20];
+        large[3][4] = 1;
+        assertTrue(SparseMatrix.shouldBeSparse(large));
+    }
+}
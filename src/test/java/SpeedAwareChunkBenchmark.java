@@ -0,0 +1,40 @@
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import scheduling.TiredExecutor;
+import scheduling.TiredThread;
+import spl.lae.TaskGranularity;
+
+/**
+ * Compares the makespan of a batch split into equal tasks with the same batch claimed in
+ * speed-aware chunks, on workers of different speeds. Worker i takes 1 + i * skew times as
+ * long per unit; the time is spent parked, so the comparison holds on a single core too.
+ * Not a unit test; run it directly:
+ * java -cp target/classes:target/test-classes SpeedAwareChunkBenchmark [units] [threads] [skew]
+ */
+public class SpeedAwareChunkBenchmark {
+
+    private static final long UNIT_NANOS = 20000; // time of one unit on the fastest worker
+
+    public static void main(String[] args) throws InterruptedException {
+        int units = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        double skew = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+
+        System.out.println(units + " units of " + UNIT_NANOS / 1000 + " us, " + threads + " threads, skew " + skew + ", best of 3");
+        TiredExecutor executor = new TiredExecutor(threads);
+        TaskGranularity uniform = new TaskGranularity(1, threads);
+        TaskGranularity speedAware = new TaskGranularity(1, threads, executor);
+        TaskGranularity.RowBlock work = (start, end) -> {
+            int id = Thread.currentThread() instanceof TiredThread t ? t.getWorkerId() : 0;
+            LockSupport.parkNanos((long) ((end - start) * UNIT_NANOS * (1 + id * skew)));
+        };
+        long equal = BenchmarkTiming.bestOf(3, () -> executor.submitAll(uniform.split(units, 1, work)));
+        long chunked = BenchmarkTiming.bestOf(3, () -> executor.submitAll(speedAware.split(units, 1, work)));
+        System.out.printf("equal tasks : %.1f ms (%d units per task)%n", equal / 1e6, uniform.rowsPerTask(units, 1, 1));
+        System.out.printf("speed-aware : %.1f ms%n", chunked / 1e6);
+        System.out.print(executor.getWorkerReport());
+        executor.shutdown();
+    }
+
+}
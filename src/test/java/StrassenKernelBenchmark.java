@@ -0,0 +1,62 @@
+import java.util.Random;
+
+import memory.GemmKernel;
+import memory.SharedMatrix;
+import memory.StrassenKernel;
+
+/**
+ * Picks the Strassen crossover: times StrassenKernel for several crossovers against the
+ * classical GemmKernel, and prints the largest difference from the classical product.
+ * Not a unit test; run it directly:
+ * java -cp target/classes:target/test-classes StrassenKernelBenchmark [size] [repetitions]
+ */
+public class StrassenKernelBenchmark {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        double[][] a = randomMatrix(size, 1);
+        double[][] b = randomMatrix(size, 2);
+        double flops = 2.0 * size * size * size;
+
+        System.out.println("size " + size + "x" + size + ", best of " + repetitions);
+        double[][] expected = gemm(a, b);
+        System.out.printf("GemmKernel           : %.3f GFLOP/s%n", flops / BenchmarkTiming.bestOf(repetitions, () -> gemm(a, b)));
+        for (int crossover = 32; crossover <= size / 2; crossover *= 2) {
+            final int c = crossover;
+            long time = BenchmarkTiming.bestOf(repetitions, () -> StrassenKernel.multiply(a, b, c));
+            double error = maxDifference(expected, StrassenKernel.multiply(a, b, c));
+            System.out.printf("Strassen crossover %-4d: %.3f GFLOP/s (classical-equivalent), max error %.3e%n",
+                    crossover, flops / time, error);
+        }
+    }
+
+    private static double[][] gemm(double[][] a, double[][] b) {
+        SharedMatrix left = new SharedMatrix(a);
+        GemmKernel.PackedMatrix packed = GemmKernel.pack(new SharedMatrix(b));
+        SharedMatrix result = new SharedMatrix(a.length, packed.columns());
+        GemmKernel.multiply(left, packed, result, 0, a.length);
+        return result.readRowMajor();
+    }
+
+    private static double maxDifference(double[][] expected, double[][] actual) {
+        double max = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int j = 0; j < expected[i].length; j++) {
+                max = Math.max(max, Math.abs(expected[i][j] - actual[i][j]));
+            }
+        }
+        return max;
+    }
+
+    private static double[][] randomMatrix(int size, long seed) {
+        Random random = new Random(seed);
+        double[][] matrix = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                matrix[i][j] = 2 * random.nextDouble() - 1;
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import memory.StrassenKernel;
+
+class StrassenKernelTest {
+
+    @Test
+    void testMatchesClassicalProduct() {
+        // sizes that need no padding, some padding, and no recursion at all
+        for (int size : new int[]{1, 7, 16, 33, 64, 100}) {
+            double[][] a = randomMatrix(size, 1);
+            double[][] b = randomMatrix(size, 2);
+            assertClose(classical(a, b), StrassenKernel.multiply(a, b, 8), size);
+        }
+    }
+
+    @Test
+    void testParallelPlanMatchesSequential() {
+        double[][] a = randomMatrix(90, 3);
+        double[][] b = randomMatrix(90, 4);
+        for (int levels = 0; levels <= 3; levels++) {
+            StrassenKernel.Plan plan = StrassenKernel.plan(a, b, 8, levels);
+            assertEquals((int) Math.pow(7, levels), plan.productCount());
+            // the products are independent, run them in reverse order
+            for (int i = plan.tasks().size() - 1; i >= 0; i--) {
+                plan.tasks().get(i).run();
+            }
+            assertClose(classical(a, b), plan.result(), 90);
+        }
+    }
+
+    @Test
+    void testAccuracyBound() {
+        // Strassen's error bound grows like n^log2(12) * eps * |A| * |B|, far looser than
+        // classical; check the error stays within it for values in [-1, 1)
+        int size = 256;
+        double[][] a = randomMatrix(size, 5);
+        double[][] b = randomMatrix(size, 6);
+        double[][] expected = classical(a, b);
+        double[][] actual = StrassenKernel.multiply(a, b, 16);
+        double error = 0;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                error = Math.max(error, Math.abs(expected[i][j] - actual[i][j]));
+            }
+        }
+        double bound = Math.pow(size, Math.log(12) / Math.log(2)) * Math.ulp(1.0);
+        assertTrue(error < bound, "error " + error + " exceeds " + bound);
+    }
+
+    @Test
+    void testLevelsFor() {
+        assertEquals(1, StrassenKernel.levelsFor(1));
+        assertEquals(1, StrassenKernel.levelsFor(7));
+        assertEquals(2, StrassenKernel.levelsFor(8));
+        assertEquals(2, StrassenKernel.levelsFor(49));
+    }
+
+    @Test
+    void testIllegalArguments() {
+        double[][] square = new double[2][2];
+        double[][] wide = new double[2][3];
+        assertThrows(IllegalArgumentException.class, () -> StrassenKernel.plan(square, wide, 8, 1));
+        assertThrows(IllegalArgumentException.class, () -> StrassenKernel.plan(square, square, 0, 1));
+    }
+
+    private static double[][] classical(double[][] a, double[][] b) {
+        int n = a.length;
+        double[][] c = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < n; k++) {
+                for (int j = 0; j < n; j++) {
+                    c[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        return c;
+    }
+
+    private static void assertClose(double[][] expected, double[][] actual, int size) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], 1e-12 * size * size);
+        }
+    }
+
+    private static double[][] randomMatrix(int size, long seed) {
+        Random random = new Random(seed);
+        double[][] matrix = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                matrix[i][j] = 2 * random.nextDouble() - 1;
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import parser.ComputationNode;
+import scheduling.TiredExecutor;
+import spl.lae.LinearAlgebraEngine;
+
+/**
+ * Measures the scheduling overhead of one task on the TiredExecutor, and the time of a
+ * sum of tall, narrow matrices for several task grains.
+ * Not a unit test; run it directly:
+ * java -cp target/classes:target/test-classes TaskGranularityBenchmark [rows] [threads]
+ */
+public class TaskGranularityBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        int count = 100000;
+        TiredExecutor executor = new TiredExecutor(threads);
+        List<Runnable> empty = new LinkedList<>();
+        for (int i = 0; i < count; i++) {
+            empty.add(() -> {});
+        }
+        executor.submitAll(empty); // warm-up
+        long start = System.nanoTime();
+        executor.submitAll(empty);
+        System.out.printf("overhead per task: %.0f ns (%d empty tasks, %d threads)%n",
+                (double) (System.nanoTime() - start) / count, count, threads);
+        executor.shutdown();
+
+        System.out.println("sum of three " + rows + "x8 matrices");
+        for (long grain : new long[]{1, 1 << 10, 1 << 15, 1 << 20}) {
+            String[] tasks = {""};
+            long best = BenchmarkTiming.bestOf(5, () -> {
+                LinearAlgebraEngine engine = new LinearAlgebraEngine(threads);
+                engine.setTaskGrain(grain);
+                return engine;
+            }, engine -> {
+                ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(
+                        new ComputationNode(matrix(rows, 1)), new ComputationNode(matrix(rows, 2)), new ComputationNode(matrix(rows, 3)))));
+                engine.run(root);
+                tasks[0] = engine.getWorkerReport().replaceAll("(?s).*--- Task Granularity ---\n([^\n]*).*", "$1");
+            });
+            System.out.printf("grain %-8d: %.3f ms [%s]%n", grain, best / 1e6, tasks[0]);
+        }
+    }
+
+    private static double[][] matrix(int rows, double value) {
+        double[][] matrix = new double[rows][8];
+        for (double[] row : matrix) {
+            Arrays.fill(row, value);
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,93 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import scheduling.TiredExecutor;
+import spl.lae.TaskGranularity;
+
+class TaskGranularityTest {
+
+    @Test
+    void testCheapRowsAreGrouped() {
+        // 100000 rows of 8 columns: a few tasks per worker instead of one task per row
+        TaskGranularity granularity = new TaskGranularity(TaskGranularity.DEFAULT_GRAIN, 4);
+        int rows = granularity.rowsPerTask(100000, 8, 1);
+        assertEquals(100000 / (4 * TaskGranularity.TASKS_PER_WORKER), rows);
+    }
+
+    @Test
+    void testGrainSetsTheMinimumTaskSize() {
+        TaskGranularity granularity = new TaskGranularity(1000, 2);
+        // 10 operations per row, enough rows for every worker: 100 rows make the grain
+        assertEquals(100, granularity.rowsPerTask(400, 10, 1));
+        // below the grain per worker but enough to spread: every worker still gets a task
+        assertEquals(25, new TaskGranularity(4096, 2).rowsPerTask(50, 50, 1));
+    }
+
+    @Test
+    void testSubGrainComputationIsOneTask() {
+        // an 8x8 sum on 4 workers: 64 element operations, far below the grain
+        TaskGranularity granularity = new TaskGranularity(TaskGranularity.DEFAULT_GRAIN, 4);
+        List<Runnable> tasks = granularity.split(8, 8, (start, end) -> {});
+        assertEquals(1, tasks.size());
+        // too little work to spread: one task, not one per worker
+        assertTrue(new TaskGranularity(1000, 2).rowsPerTask(50, 10, 1) >= 50);
+    }
+
+    @Test
+    void testExpensiveRowsAreSplitForBalance() {
+        // a row of a large product is above the grain on its own
+        TaskGranularity granularity = new TaskGranularity(TaskGranularity.DEFAULT_GRAIN, 4);
+        assertEquals(2, granularity.rowsPerTask(32, 2L * 4096 * 4096, 1));
+        // rounded up to whole tiles
+        assertEquals(4, granularity.rowsPerTask(32, 2L * 4096 * 4096, 4));
+    }
+
+    @Test
+    void testSplitCoversEveryRowOnce() {
+        TaskGranularity granularity = new TaskGranularity(64, 3);
+        int[] covered = new int[1001];
+        List<Runnable> tasks = granularity.split(1001, 1, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                covered[i]++;
+            }
+        });
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        for (int count : covered) {
+            assertEquals(1, count);
+        }
+        assertEquals(tasks.size(), granularity.getTasks());
+        assertTrue(granularity.getReport().contains("Tasks: " + tasks.size()));
+    }
+
+    @Test
+    void testSpeedAwareSplitCoversEveryRowOnce() throws InterruptedException {
+        TiredExecutor executor = new TiredExecutor(3);
+        TaskGranularity granularity = new TaskGranularity(64, 3, executor);
+        int[] covered = new int[1001];
+        // one task per worker, each claiming chunks of whole tiles of 4 rows
+        List<Runnable> tasks = granularity.split(1001, 2, 4, (start, end) -> {
+            assertEquals(0, start % 4);
+            for (int i = start; i < end; i++) {
+                covered[i]++;
+            }
+        });
+        assertEquals(3, tasks.size());
+        executor.submitAll(tasks);
+        for (int count : covered) {
+            assertEquals(1, count);
+        }
+        assertTrue(granularity.isSpeedAware());
+        executor.shutdown();
+    }
+
+    @Test
+    void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new TaskGranularity(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new TaskGranularity(64, 0));
+    }
+}
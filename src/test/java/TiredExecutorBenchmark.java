@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import scheduling.SchedulingMode;
+import scheduling.TiredExecutor;
+
+/**
+ * Compares the scheduling modes of TiredExecutor on many small tasks: a batch through
+ * submitAll, and tasks submitted one by one as the engine does.
+ * Not a unit test; run it directly:
+ * java -cp target/classes:target/test-classes TiredExecutorBenchmark [tasks] [threads] [work]
+ */
+public class TiredExecutorBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int work = args.length > 2 ? Integer.parseInt(args[2]) : 200; // loop iterations per task
+
+        System.out.println(count + " tasks of " + work + " iterations, " + threads + " threads, best of 5");
+        for (SchedulingMode mode : SchedulingMode.values()) {
+            TiredExecutor executor = new TiredExecutor(threads, mode);
+            AtomicLong sink = new AtomicLong();
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                tasks.add(() -> sink.addAndGet(spin(work)));
+            }
+            long batch = BenchmarkTiming.bestOf(5, () -> executor.submitAll(tasks));
+            long single = BenchmarkTiming.bestOf(5, () -> {
+                for (Runnable task : tasks) {
+                    executor.submit(task);
+                }
+                executor.submitAll(List.of());
+            });
+            System.out.printf("%-15s: submitAll %.0f ns/task, submit %.0f ns/task%n",
+                    mode, (double) batch / count, (double) single / count);
+            executor.shutdown();
+        }
+    }
+
+    private static long spin(int iterations) {
+        long x = 1;
+        for (int i = 0; i < iterations; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x;
+    }
+
+}
@@ -5,10 +5,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
+import scheduling.SchedulingMode;
 import scheduling.TiredExecutor;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 class TiredExecutorTest {
@@ -113,4 +120,354 @@ class TiredExecutorTest {
         assertTrue(report.contains("Fatigue"), "Report doesn't contain fatigue levels");
         assertTrue(report.contains("Time Used"), "Report doesn't contain timing data");
     }
-}
\ No newline at end of file
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testWorkStealingRunsEveryTask() throws InterruptedException {
+        TiredExecutor stealing = new TiredExecutor(NUM_THREADS, SchedulingMode.WORK_STEALING);
+        int numTasks = 10000;
+        List<Runnable> tasks = new ArrayList<>();
+        AtomicInteger counter = new AtomicInteger(0);
+        for (int i = 0; i < numTasks; i++) {
+            tasks.add(counter::incrementAndGet);
+        }
+        stealing.submitAll(tasks);
+        assertEquals(numTasks, counter.get(), "Not all tasks finished");
+        stealing.shutdown();
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testWorkStealingSubmitDoesNotWait() throws InterruptedException {
+        TiredExecutor stealing = new TiredExecutor(NUM_THREADS, SchedulingMode.WORK_STEALING);
+        Object gate = new Object();
+        boolean[] open = {false};
+        AtomicInteger counter = new AtomicInteger(0);
+        // more blocked tasks than workers: a handoff submit would wait for an idle worker
+        for (int i = 0; i < 2 * NUM_THREADS; i++) {
+            stealing.submit(() -> {
+                synchronized (gate) {
+                    while (!open[0]) {
+                        try {
+                            gate.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+                counter.incrementAndGet();
+            });
+        }
+        synchronized (gate) {
+            open[0] = true;
+            gate.notifyAll();
+        }
+        stealing.submitAll(new ArrayList<>());
+        assertEquals(2 * NUM_THREADS, counter.get());
+        // every task went to the least tired worker first, the others stole theirs
+        assertTrue(stealing.getWorkerReport().contains("Steals: "), "Report doesn't contain steals");
+        stealing.shutdown();
+    }
+
+    @Test
+    void testWorkStealingRejectsAfterShutdown() throws InterruptedException {
+        TiredExecutor stealing = new TiredExecutor(NUM_THREADS, SchedulingMode.WORK_STEALING);
+        stealing.shutdown();
+        assertThrows(IllegalStateException.class, () -> stealing.submit(() -> {}));
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void testManyWorkersManySubmitters() throws InterruptedException {
+        TiredExecutor wide = new TiredExecutor(32);
+        int perSubmitter = 2000;
+        AtomicInteger counter = new AtomicInteger(0);
+        List<Thread> submitters = new ArrayList<>();
+        // more submitters than idle workers keeps some of them parked
+        for (int s = 0; s < 48; s++) {
+            Thread submitter = new Thread(() -> {
+                for (int i = 0; i < perSubmitter; i++) {
+                    wide.submit(counter::incrementAndGet);
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        wide.submitAll(new ArrayList<>());
+        assertEquals(48 * perSubmitter, counter.get(), "Not all tasks finished");
+        wide.shutdown();
+    }
+
+    @Test
+    void testLatencyIsReported() throws InterruptedException {
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tasks.add(() -> {});
+        }
+        executor.submitAll(tasks);
+        assertEquals(100, executor.getSubmitLatency().count());
+        assertEquals(100, executor.getCompleteLatency().count());
+        String report = executor.getWorkerReport();
+        assertTrue(report.contains("Submit latency: p50 "), "Report doesn't contain submit latency");
+        assertTrue(report.contains("Complete latency: p50 "), "Report doesn't contain complete latency");
+    }
+
+    @Test
+    void testHandoffRejectsAfterShutdown() throws InterruptedException {
+        TiredExecutor handoff = new TiredExecutor(NUM_THREADS);
+        handoff.shutdown();
+        assertThrows(IllegalStateException.class, () -> handoff.submit(() -> {}));
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testVirtualThreadsSubmitDoesNotWait() throws InterruptedException {
+        TiredExecutor virtual = new TiredExecutor(NUM_THREADS, SchedulingMode.VIRTUAL_THREADS);
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger counter = new AtomicInteger(0);
+        // more blocked tasks than workers: the extra ones wait in virtual threads, not here
+        for (int i = 0; i < 4 * NUM_THREADS; i++) {
+            virtual.submit(() -> {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                counter.incrementAndGet();
+            });
+        }
+        assertEquals(0, counter.get());
+        gate.countDown();
+        virtual.submitAll(new ArrayList<>());
+        assertEquals(4 * NUM_THREADS, counter.get());
+        // every worker ran blocked tasks, and its time is accounted as in handoff mode; a worker
+        // adds its time after the task reports completion, so it is read once the workers exited
+        virtual.shutdown();
+        assertFalse(virtual.getWorkerReport().contains("Time Used: 0,"), "A worker has no time used");
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void testVirtualThreadCallers() throws InterruptedException {
+        TiredExecutor virtual = new TiredExecutor(NUM_THREADS, SchedulingMode.VIRTUAL_THREADS);
+        AtomicInteger counter = new AtomicInteger(0);
+        List<Thread> callers = new ArrayList<>();
+        // many more callers than workers, each waiting for its batch in a virtual thread
+        for (int c = 0; c < 1000; c++) {
+            callers.add(Thread.ofVirtual().start(() -> {
+                List<Runnable> tasks = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    tasks.add(counter::incrementAndGet);
+                }
+                virtual.submitAll(tasks);
+            }));
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        assertEquals(10000, counter.get(), "Not all tasks finished");
+        virtual.shutdown();
+        assertThrows(IllegalStateException.class, () -> virtual.submit(() -> {}));
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testSubmitAsyncCarriesException() throws InterruptedException {
+        CompletableFuture<Void> ok = executor.submitAsync(() -> {});
+        CompletableFuture<Void> failed = executor.submitAsync(() -> {
+            throw new ArithmeticException("boom");
+        });
+        ok.join();
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertInstanceOf(ArithmeticException.class, e.getCause());
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testBatchWaitsOnlyForItsOwnTasks() throws InterruptedException {
+        for (SchedulingMode mode : SchedulingMode.values()) {
+            TiredExecutor shared = new TiredExecutor(NUM_THREADS, mode);
+            CountDownLatch gate = new CountDownLatch(1);
+            // another caller's batch blocks until released
+            CompletableFuture<Void> blocked = shared.submitAllAsync(List.of(() -> {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            AtomicInteger counter = new AtomicInteger(0);
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                tasks.add(counter::incrementAndGet);
+            }
+            AtomicInteger callbacks = new AtomicInteger(0);
+            shared.submitAllAsync(tasks).thenRun(callbacks::incrementAndGet).join();
+            assertEquals(100, counter.get(), mode + ": batch completed before its tasks");
+            assertEquals(1, callbacks.get(), mode + ": callback didn't run");
+            assertFalse(blocked.isDone(), mode + ": batch waited for another caller");
+            gate.countDown();
+            blocked.join();
+            shared.shutdown();
+        }
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testBatchRunsEveryTaskDespiteFailures() throws InterruptedException {
+        AtomicInteger counter = new AtomicInteger(0);
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final int index = i;
+            tasks.add(() -> {
+                counter.incrementAndGet();
+                if (index % 5 == 0)
+                    throw new IllegalStateException("task " + index);
+            });
+        }
+        CompletableFuture<Void> batch = executor.submitAllAsync(tasks);
+        CompletionException e = assertThrows(CompletionException.class, batch::join);
+        assertEquals(20, counter.get());
+        // the first failure carries the other three
+        assertEquals(3, e.getCause().getSuppressed().length);
+        assertTrue(executor.submitAllAsync(new ArrayList<>()).isDone());
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testSpeedAwareChunksCoverEveryUnitOnce() throws InterruptedException {
+        for (SchedulingMode mode : SchedulingMode.values()) {
+            TiredExecutor chunked = new TiredExecutor(NUM_THREADS, mode);
+            AtomicIntegerArray covered = new AtomicIntegerArray(10001);
+            AtomicInteger chunks = new AtomicInteger(0);
+            List<Runnable> drivers = chunked.speedAware(10001, 8, 4, 16, (start, end) -> {
+                assertEquals(0, start % 4, mode + ": chunk not a multiple");
+                chunks.incrementAndGet();
+                for (int i = start; i < end; i++) {
+                    covered.incrementAndGet(i);
+                }
+            });
+            assertEquals(NUM_THREADS, drivers.size());
+            chunked.submitAllAsync(drivers).join();
+            for (int i = 0; i < covered.length(); i++) {
+                assertEquals(1, covered.get(i), mode + ": unit " + i);
+            }
+            // chunks shrink toward the end, more of them than workers
+            assertTrue(chunks.get() > NUM_THREADS, mode + ": " + chunks.get() + " chunks");
+            assertTrue(chunked.getWorkerReport().contains("Speed-aware batches: 1, Makespan: "), mode.toString());
+            chunked.shutdown();
+        }
+    }
+
+    @Test
+    void testSpeedAwareIllegalArguments() {
+        assertTrue(executor.speedAware(0, 1, 1, 1, (start, end) -> {}).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> executor.speedAware(10, 1, 0, 1, (start, end) -> {}));
+        assertThrows(IllegalArgumentException.class, () -> executor.speedAware(10, 1, 1, 1, null));
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testAbandonedBatchFailsAfterItsRunningTasks() throws InterruptedException {
+        TiredExecutor single = new TiredExecutor(1, SchedulingMode.VIRTUAL_THREADS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger(0);
+        // the second task waits for the only worker, and is dropped by the shutdown
+        CompletableFuture<Void> batch = single.submitAllAsync(List.of(() -> {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, ran::incrementAndGet));
+        started.await();
+        Thread shutdown = new Thread(() -> {
+            try {
+                single.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        shutdown.start();
+        Thread.sleep(200);
+        assertFalse(batch.isDone(), "Batch failed while its first task was still running");
+        gate.countDown();
+        CompletionException e = assertThrows(CompletionException.class, batch::join);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(0, ran.get());
+        shutdown.join();
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testVirtualThreadsDispatchInSubmissionOrder() throws InterruptedException {
+        TiredExecutor single = new TiredExecutor(1, SchedulingMode.VIRTUAL_THREADS);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 200; i++) {
+            final int index = i;
+            single.submit(() -> order.add(index));
+        }
+        single.submitAll(new ArrayList<>());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, order.get(i));
+        }
+        single.shutdown();
+    }
+
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testDroppedTasksFailSubmitAll() throws InterruptedException {
+        TiredExecutor single = new TiredExecutor(1, SchedulingMode.VIRTUAL_THREADS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger(0);
+        single.submit(() -> {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        // queued behind the blocked worker, dropped by the shutdown
+        for (int i = 0; i < 3; i++) {
+            single.submit(ran::incrementAndGet);
+        }
+        started.await();
+        Throwable[] waited = new Throwable[1];
+        Thread waiter = new Thread(() -> {
+            try {
+                single.submitAll(new ArrayList<>());
+            } catch (Throwable t) {
+                waited[0] = t;
+            }
+        });
+        waiter.start();
+        while (waiter.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        Thread shutdown = new Thread(() -> {
+            try {
+                single.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        shutdown.start();
+        Thread.sleep(100);
+        gate.countDown();
+        waiter.join();
+        shutdown.join();
+        assertEquals(0, ran.get());
+        assertEquals(3, single.getDropped());
+        assertInstanceOf(IllegalStateException.class, waited[0], "submitAll returned as if the dropped tasks ran");
+        assertTrue(single.getWorkerReport().contains("Dropped tasks: 3"));
+    }
+}